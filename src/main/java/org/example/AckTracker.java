@@ -0,0 +1,222 @@
+package org.example;
+
+import javax.jms.JMSException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 指令确认跟踪
+ * 功能：每辆车同一时间只有一条待确认的指令；未确认前检测周期不再重复发送相同指令，
+ * 指令内容变化（如导航目标改变）时以新指令替换旧指令并立即发送；
+ * 超时后按指数退避重发，超过最大重发次数后放弃（下个周期重新派发）；
+ * 小车在确认队列上回复被执行的指令内容（如 "001"、"Car001:3,4"），与待确认指令一致即视为确认
+ */
+public class AckTracker {
+    private final String name;
+    private final TaskSink sink;// 超时重发目标（定时器线程使用，不经过周期录制）
+    private final HashedWheelTimer timer;
+    private final long ackTimeout;// 首次超时（毫秒）
+    private final long maxBackoff;// 重发间隔上限（毫秒）
+    private final int maxAttempts;// 最大重发次数
+    private final Map<Integer, Outstanding> outstanding = new ConcurrentHashMap<>();// 小车编号 -> 待确认指令
+
+    // 监控指标
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong replacedCount = new AtomicLong();
+    private final AtomicLong resentCount = new AtomicLong();
+    private final AtomicLong ackedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * @param name        跟踪器名（用于日志）
+     * @param sink        超时重发目标
+     * @param timer       超时定时器
+     * @param ackTimeout  首次确认超时（毫秒）
+     * @param maxBackoff  重发间隔上限（毫秒）
+     * @param maxAttempts 最大重发次数
+     */
+    public AckTracker(String name, TaskSink sink, HashedWheelTimer timer,
+                      long ackTimeout, long maxBackoff, int maxAttempts) {
+        this.name = name;
+        this.sink = sink;
+        this.timer = timer;
+        this.ackTimeout = ackTimeout;
+        this.maxBackoff = maxBackoff;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 派发指令：该车已有相同的待确认指令时不发送，已有不同指令时替换
+     * @param via 首次发送目标（检测周期线程中发送，可为录制包装）
+     * @return 是否实际发送（false 表示相同指令仍在等待确认）
+     */
+    public boolean dispatch(TaskSink via, int carIndex, String command) throws JMSException {
+        Outstanding entry = new Outstanding(carIndex, command);
+        while (true) {
+            Outstanding previous = outstanding.get(carIndex);
+            if (previous != null && previous.command.equals(command)) {
+                suppressedCount.incrementAndGet();
+                return false;
+            }
+            if (previous == null ? outstanding.putIfAbsent(carIndex, entry) == null
+                    : outstanding.replace(carIndex, previous, entry)) {
+                if (previous != null) {
+                    previous.cancel(); // 旧指令不再重发
+                    replacedCount.incrementAndGet();
+                }
+                break;
+            }
+        }
+        // 条目发布后才创建超时：期间到达的确认先取消条目，schedule 不再创建超时
+        entry.schedule(timer, () -> onTimeout(entry), ackTimeout);
+        try {
+            via.sendTask(command);
+        } catch (JMSException e) {
+            entry.cancel();
+            outstanding.remove(carIndex, entry);
+            throw e;
+        }
+        sentCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 收到确认（只清除内容一致的待确认指令，迟到的旧指令确认不影响新指令）
+     * @param command 小车回复的指令内容
+     */
+    public void acknowledge(String command) {
+        int carIndex = carIndex(command);
+        if (carIndex <= 0) {
+            System.err.println("[确认] " + name + " 无法识别的确认: " + command);
+            return;
+        }
+        Outstanding entry = outstanding.get(carIndex);
+        if (entry != null && entry.command.equals(body(command)) && outstanding.remove(carIndex, entry)) {
+            entry.cancel();
+            ackedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 确认超时：重发（退避）或放弃
+     */
+    private void onTimeout(Outstanding entry) {
+        if (outstanding.get(entry.carIndex) != entry) {
+            return; // 已确认
+        }
+        if (entry.attempts >= maxAttempts) {
+            outstanding.remove(entry.carIndex, entry);
+            expiredCount.incrementAndGet();
+            System.err.println("[确认] " + name + " 小车" + entry.carIndex + " 指令 " + entry.command
+                    + " 重发 " + entry.attempts + " 次仍未确认，放弃");
+            return;
+        }
+        entry.attempts++;
+        try {
+            sink.sendTask(entry.command);
+            resentCount.incrementAndGet();
+        } catch (JMSException e) {
+            System.err.println("[确认] " + name + " 重发失败: " + e.getMessage());
+        }
+        long delay = Math.min(ackTimeout << Math.min(entry.attempts, 20), maxBackoff);
+        entry.schedule(timer, () -> onTimeout(entry), delay);
+    }
+
+    /** 从指令内容中解析小车编号（"001" -> 1，"Car001:3,4" -> 1） */
+    static int carIndex(String command) {
+        if (command == null) {
+            return -1;
+        }
+        String body = body(command);
+        int colon = body.indexOf(':');
+        if (colon >= 0) {
+            body = body.substring(0, colon);
+        }
+        if (body.startsWith("Car")) {
+            body = body.substring(3);
+        }
+        try {
+            return Integer.parseInt(body);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** 去掉首尾空白与 JSON 字符串引号后的指令内容 */
+    static String body(String command) {
+        String body = command.trim();
+        if (body.startsWith("\"") && body.endsWith("\"") && body.length() >= 2) {
+            body = body.substring(1, body.length() - 1); // JSON 字符串
+        }
+        return body;
+    }
+
+    /** 该车是否有待确认的指令（每辆车最多一条） */
+    public boolean isInFlight(int carIndex) {
+        return outstanding.containsKey(carIndex);
+    }
+
+    /** 全部待确认的指令数 */
+    public int getInFlightTotal() {
+        return outstanding.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public long getReplacedCount() {
+        return replacedCount.get();
+    }
+
+    public long getResentCount() {
+        return resentCount.get();
+    }
+
+    public long getAckedCount() {
+        return ackedCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    private static class Outstanding {
+        final int carIndex;
+        final String command;
+        volatile int attempts = 0;// 已重发次数
+        private HashedWheelTimer.Timeout timeout;// 当前的超时（未创建时为null）
+        private boolean cancelled = false;// 已确认、被替换或发送失败
+
+        Outstanding(int carIndex, String command) {
+            this.carIndex = carIndex;
+            this.command = command;
+        }
+
+        /** 创建下一次超时（已取消时不再创建） */
+        synchronized void schedule(HashedWheelTimer timer, Runnable task, long delay) {
+            if (!cancelled) {
+                timeout = timer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /** 取消条目及其超时（超时尚未创建时只做标记） */
+        synchronized void cancel() {
+            cancelled = true;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
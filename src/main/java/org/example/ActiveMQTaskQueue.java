@@ -1,20 +1,32 @@
 package org.example;
 
-import org.apache.activemq.ActiveMQConnectionFactory;
 import com.google.gson.Gson;
 
 import javax.jms.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ActiveMQ 任务队列工具类
  * 功能：消息发送、消费、队列声明、异常处理
+ * 所有队列共享 JmsConnectionManager 管理的同一条连接，发送时从会话池借出会话（线程安全）
  */
 public class ActiveMQTaskQueue {
-    private final Connection connection;// ActiveMQ连接对象
-    private final Session session;// 会话对象（生产/消费消息）
+    private final Connection connection;// 共享连接句柄
+    private Session consumerSession;// 消费者专用会话（长期持有）
+    private BrokerQueueMonitor monitor;// 队列深度与消费者数量监控（按需启动）
     private final Gson gson = new Gson();// JSON序列化工具
     private final String queueName;// 队列名称
+    public static final String DEDUP_ID_PROPERTY = "dedupId";// 去重ID消息属性名
+    private static final int DEDUP_WINDOW = 4096;// 消费者记住的最近去重ID数量
+    // 去重ID前缀：进程号与启动时间，重启后不会与上次运行的ID重复
+    private static final String DEDUP_PREFIX = ProcessHandle.current().pid() + "@" + System.currentTimeMillis() + ":";
+    private static final AtomicLong dedupSeq = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();// 消费者丢弃的重复消息数
 
     /**
      * 初始化连接和队列
@@ -22,10 +34,7 @@ public class ActiveMQTaskQueue {
      * @param queueName  队列名称
      */
     public ActiveMQTaskQueue(String brokerUrl, String queueName) throws JMSException {
-        ConnectionFactory factory = new ActiveMQConnectionFactory(brokerUrl);// 1. 创建连接工厂
-        this.connection = factory.createConnection();// 2. 创建连接并启动
-        this.connection.start();//启动
-        this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);//  3. 创建会话（非事务，自动ACK）
+        this.connection = JmsConnectionManager.createConnection(brokerUrl);// 1. 获取共享连接（已启动）
         this.queueName = queueName;// 保存队列名
     }
 
@@ -34,40 +43,194 @@ public class ActiveMQTaskQueue {
      * @param task 可序列化的任务对象
      */
     public <T> void sendTask(T task) throws JMSException {
+        sendJson(serialize(task), nextDedupId());
+    }
+
+    /**
+     * 分配新的去重ID（每条消息一个，发送失败后重放时沿用）
+     */
+    public static String nextDedupId() {
+        return DEDUP_PREFIX + dedupSeq.incrementAndGet();
+    }
+
+    /**
+     * 任务对象转JSON
+     */
+    public <T> String serialize(T task) {
+        return gson.toJson(task);
+    }
+
+    /**
+     * 发送已序列化的JSON消息
+     * @param message JSON消息
+     * @param dedupId 去重ID（直接发送与发件箱重放使用同一ID，消费者据此丢弃重复消息），可为null
+     */
+    public void sendJson(String message, String dedupId) throws JMSException {
+        // 1. 从会话池借出会话（非事务，自动ACK）
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            send(session, message, dedupId, null);
+        } finally {
+            session.close(); // 归还会话池
+        }
+    }
+
+    private void send(Session session, String message, String dedupId,
+                      TraceContext.Stamp stamp) throws JMSException {
         // 1. 创建指向队列的Producer
         Destination destination = session.createQueue(queueName);
         MessageProducer producer = session.createProducer(destination);
-        // 2. 设置消息持久化
-        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-        // 3. 对象转JSON并发送
-        String message = gson.toJson(task);
+        // 2. 持久化发送（默认优先级）
         TextMessage textMessage = session.createTextMessage(message);
-        producer.send(textMessage);
+        if (dedupId != null) {
+            textMessage.setStringProperty(DEDUP_ID_PROPERTY, dedupId);
+        }
+        if (stamp != null) {
+            stamp.apply(textMessage); // 周期ID、关联ID、决策发送时间
+        }
+        if (stamp == null || !TraceEvents.jmsSendEnabled()) {
+            // 消息属性总是写入；只有录制 JMS 发送事件时才创建事件对象
+            producer.send(textMessage, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE);
+        } else {
+            // 等待时间截止到调用 send 之前，send 本身的耗时由事件时长记录
+            long laneWait = System.currentTimeMillis() - stamp.sendTimestamp;
+            TraceEvents.JmsSendEvent event = new TraceEvents.JmsSendEvent();
+            event.begin();
+            producer.send(textMessage, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE);
+            event.end();
+            if (event.shouldCommit()) {
+                event.queue = queueName;
+                event.tickId = stamp.tickId;
+                event.correlationId = stamp.correlationId;
+                event.laneWait = laneWait;
+                event.commit();
+            }
+        }
         //完成（测试）并释放
 //        System.out.println(" [x] Sent: " + message);
         producer.close();
     }
 
+    /**
+     * 创建独占会话的发送器（供单线程发送通道长期持有，默认优先级）
+     */
+    public Sender createSender() {
+        return new Sender();
+    }
+
+    /**
+     * 独占会话的发送器（非线程安全，只在一个线程中使用）
+     */
+    public class Sender {
+        private Session session;
+
+        private Sender() {
+        }
+
+        /**
+         * 发送JSON消息，失败时丢弃当前会话，下次发送重新获取
+         * @param stamp 追踪信息，可为null
+         */
+        public void send(String message, String dedupId, TraceContext.Stamp stamp) throws JMSException {
+            if (session == null) {
+                session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            }
+            try {
+                ActiveMQTaskQueue.this.send(session, message, dedupId, stamp);
+            } catch (JMSException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public void close() {
+            if (session != null) {
+                try {
+                    session.close();
+                } catch (JMSException e) {
+                    System.err.println(" [!] 关闭发送会话失败: " + e.getMessage());
+                }
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * 启动队列深度与消费者数量监控（重复调用返回同一个监控器）
+     * @param interval 统计查询间隔（毫秒）
+     */
+    public synchronized BrokerQueueMonitor startMonitor(long interval) throws JMSException {
+        if (monitor == null) {
+            monitor = new BrokerQueueMonitor(connection, queueName, interval);
+        }
+        return monitor;
+    }
+
     /**
      * 启动消费者（同步监听）
      * @param taskHandler 任务处理回调接口
      */
     public <T> void startConsumer(Class<T> taskType, TaskHandler<T> taskHandler) throws JMSException {
-       //创建指向目的队列的消费者
-        Destination destination = session.createQueue(queueName);
-        MessageConsumer consumer = session.createConsumer(destination);
+       //创建指向目的队列的消费者（消费者会话长期持有，直到close）
+        if (consumerSession == null) {
+            consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+        Destination destination = consumerSession.createQueue(queueName);
+        MessageConsumer consumer = consumerSession.createConsumer(destination);
+        // 最近收到的去重ID（有界，按访问顺序淘汰最旧的）
+        Set<String> recentIds = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > DEDUP_WINDOW;
+            }
+        });
         // 2. 设置异步监听器
         consumer.setMessageListener(message -> {
             try {
+                // 发送端超时后重放的消息 Broker 可能已经收到过，按去重ID丢弃
+                String dedupId = message.getStringProperty(DEDUP_ID_PROPERTY);
+                if (dedupId != null && !recentIds.add(dedupId)) {
+                    duplicateCount.incrementAndGet();
+                    return;
+                }
 
                 if (message instanceof TextMessage) {
-                    // 3. 提取JSON并反序列化
+                    // 3. 记录接收事件（从决策到收到的耗时）
+                    long tickId = message.propertyExists(TraceContext.TICK_ID_PROPERTY)
+                            ? message.getLongProperty(TraceContext.TICK_ID_PROPERTY) : 0;
+                    String correlationId = message.getJMSCorrelationID();
+                    TraceEvents.ConsumerReceiveEvent received = new TraceEvents.ConsumerReceiveEvent();
+                    if (received.shouldCommit()) {
+                        received.queue = queueName;
+                        received.tickId = tickId;
+                        received.correlationId = correlationId;
+                        if (message.propertyExists(TraceContext.SEND_TIMESTAMP_PROPERTY)) {
+                            received.latency = System.currentTimeMillis()
+                                    - message.getLongProperty(TraceContext.SEND_TIMESTAMP_PROPERTY);
+                        }
+                        received.commit();
+                    }
+
+                    // 4. 提取JSON并反序列化
                     TextMessage textMessage = (TextMessage) message;
                     String json = textMessage.getText();
                     T task = gson.fromJson(json, taskType);
 
                     // 处理任务
-                    taskHandler.handle(task);
+                    TraceEvents.TaskHandleEvent handled = new TraceEvents.TaskHandleEvent();
+                    handled.begin();
+                    try {
+                        taskHandler.handle(task);
+                        handled.succeeded = true;
+                    } finally {
+                        handled.end();
+                        if (handled.shouldCommit()) {
+                            handled.queue = queueName;
+                            handled.tickId = tickId;
+                            handled.correlationId = correlationId;
+                            handled.commit();
+                        }
+                    }
 
                     // ActiveMQ 的 AUTO_ACKNOWLEDGE 模式会自动确认消息
                 }
@@ -80,12 +243,22 @@ public class ActiveMQTaskQueue {
         System.out.println(" [*] Waiting for messages...");
     }
 
+    /** 消费者按去重ID丢弃的重复消息数 */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
     /**
      * 关闭连接
      */
     public void close() throws JMSException {
-        session.close();
-        connection.close();
+        if (monitor != null) {
+            monitor.close();
+        }
+        if (consumerSession != null) {
+            consumerSession.close();
+        }
+        connection.close(); // 归还共享连接，物理连接由 JmsConnectionManager.shutdown() 关闭
     }
 
     /**
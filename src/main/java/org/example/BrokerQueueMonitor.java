@@ -0,0 +1,164 @@
+package org.example;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broker 队列监控
+ * 功能：定时向 ActiveMQ 统计插件（StatisticsBrokerPlugin）查询队列积压深度，
+ * 并订阅消费者通知主题（Advisory）实时更新消费者数量；统计过期时视为未知，不限流
+ */
+public class BrokerQueueMonitor {
+    private static final String STATISTICS_PREFIX = "ActiveMQ.Statistics.Destination.";
+    private static final String ADVISORY_PREFIX = "ActiveMQ.Advisory.Consumer.Queue.";
+    private static final int STALE_INTERVALS = 3; // 超过几个查询间隔没有回复视为统计过期
+
+    /** 统计更新回调 */
+    public interface Listener {
+        void onUpdate(BrokerQueueMonitor monitor);
+    }
+
+    private final String queueName;
+    private final long interval;
+    private final Session listenerSession;// 接收统计回复与通知（监听器线程）
+    private final Session requestSession;// 发送统计请求（定时线程）
+    private final MessageProducer requestProducer;
+    private final Destination replyTo;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer;
+    private volatile long depth = -1;// 队列积压消息数（未知时为-1）
+    private volatile long consumerCount = -1;// 消费者数量（未知时为-1）
+    private volatile long updatedAt = 0;// 最近一次收到统计的时间（毫秒）
+    private volatile boolean warned = false;
+
+    /**
+     * @param connection 共享连接
+     * @param queueName  被监控的队列
+     * @param interval   统计查询间隔（毫秒）
+     */
+    public BrokerQueueMonitor(Connection connection, String queueName, long interval) throws JMSException {
+        this.queueName = queueName;
+        this.interval = interval;
+        // 1. 统计回复：临时队列 + 监听器
+        this.listenerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        this.replyTo = listenerSession.createTemporaryQueue();
+        MessageConsumer replies = listenerSession.createConsumer(replyTo);
+        replies.setMessageListener(this::onStatistics);
+        // 2. 消费者上下线通知（消息属性 consumerCount 为当前消费者数量）
+        MessageConsumer advisories = listenerSession.createConsumer(
+                listenerSession.createTopic(ADVISORY_PREFIX + queueName));
+        advisories.setMessageListener(this::onAdvisory);
+        // 3. 定时发送统计请求
+        this.requestSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        this.requestProducer = requestSession.createProducer(requestSession.createQueue(STATISTICS_PREFIX + queueName));
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "queue-monitor-" + queueName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::requestStatistics, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private void requestStatistics() {
+        try {
+            Message request = requestSession.createMessage();
+            request.setJMSReplyTo(replyTo);
+            requestProducer.send(request);
+        } catch (JMSException e) {
+            System.err.println("[队列监控] " + queueName + " 统计请求失败: " + e.getMessage());
+        }
+        if (!warned && updatedAt == 0) {
+            warned = true; // 首次请求后仍无回复时提示一次（Broker可能未启用统计插件）
+            timer.schedule(() -> {
+                if (updatedAt == 0) {
+                    System.err.println("[队列监控] " + queueName + " 未收到统计回复，请确认Broker已启用 statisticsBrokerPlugin");
+                }
+            }, interval * STALE_INTERVALS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onStatistics(Message message) {
+        try {
+            if (!(message instanceof MapMessage)) {
+                return;
+            }
+            MapMessage stats = (MapMessage) message;
+            depth = stats.getLong("size");
+            if (stats.itemExists("consumerCount")) {
+                consumerCount = stats.getLong("consumerCount");
+            }
+            updatedAt = System.currentTimeMillis();
+            notifyListeners();
+        } catch (JMSException e) {
+            System.err.println("[队列监控] " + queueName + " 解析统计失败: " + e.getMessage());
+        }
+    }
+
+    private void onAdvisory(Message message) {
+        try {
+            if (message.propertyExists("consumerCount")) {
+                consumerCount = message.getIntProperty("consumerCount");
+                notifyListeners();
+            }
+        } catch (JMSException e) {
+            System.err.println("[队列监控] " + queueName + " 解析消费者通知失败: " + e.getMessage());
+        }
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : listeners) {
+            try {
+                listener.onUpdate(this);
+            } catch (Exception e) {
+                System.err.println("[队列监控] " + queueName + " 回调异常: " + e.getMessage());
+            }
+        }
+    }
+
+    /** 统计是否在有效期内 */
+    public boolean isFresh() {
+        return updatedAt > 0 && System.currentTimeMillis() - updatedAt <= interval * STALE_INTERVALS;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /** 队列积压消息数（未知时为-1） */
+    public long getDepth() {
+        return depth;
+    }
+
+    /** 消费者数量（未知时为-1） */
+    public long getConsumerCount() {
+        return consumerCount;
+    }
+
+    /**
+     * 停止监控
+     */
+    public void close() {
+        timer.shutdownNow();
+        try {
+            requestSession.close();
+            listenerSession.close();
+        } catch (JMSException e) {
+            System.err.println("[队列监控] " + queueName + " 关闭失败: " + e.getMessage());
+        }
+    }
+}
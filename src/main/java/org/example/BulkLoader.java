@@ -0,0 +1,267 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 场景批量导入工具
+ * 功能：逐行读取场景文件，边读边把小车任务列表和地图区域分批交给工作线程，管道写入 Redis（RPUSH / SETRANGE / BITFIELD），
+ * 内存中只保留未写完的批次；同一辆车的任务由固定的工作线程按文件顺序写入，每秒打印进度；导入地图后重建前沿索引
+ *
+ * 场景文件格式（每行一条，# 开头为注释）：
+ *   set &lt;键&gt; &lt;值&gt;             设置字符串键（如 CarNumber、mapWidth、mapLength）
+ *   task &lt;小车编号&gt; &lt;任务&gt;     追加到 Car00&lt;编号&gt;TaskList 末尾
+ *   light &lt;x&gt; &lt;y&gt; &lt;宽&gt; &lt;高&gt;   点亮地图矩形区域（按行优先：offset = y * mapWidth + x），超出地图的部分被裁掉
+ *
+ * 地图尺寸取文件中 light 之前的 set 行，否则读取 Redis
+ *
+ * 用法：BulkLoader &lt;场景文件&gt; [--workers N] [--replace]
+ *   --replace 导入前清空文件中涉及的小车任务列表
+ */
+public class BulkLoader {
+    private static final String MAP_KEY = "map";
+    private static final int DEFAULT_WORKERS = 8;
+    private static final int TASK_BATCH = 10_000;   // 每辆车累积多少条任务提交一批
+    private static final int RANGE_BATCH = 4096;    // 累积多少个行区间提交一批
+    private static final int BATCHES_PER_WORKER = 2; // 每个工作线程最多排队的批次（限制读取速度，控制内存）
+
+    private final Map<String, String> values = new LinkedHashMap<>();// 已写入的字符串键
+    private final Map<Integer, List<String>> tasks = new HashMap<>();// 小车编号 -> 未提交的任务
+    private final Set<Integer> cars = new HashSet<>();// 已出现的小车编号
+    private List<long[]> ranges = new ArrayList<>();// 未提交的行区间 {起始位, 位数}
+    private int mapWidth = -1;
+    private int mapLength = -1;
+
+    private ExecutorService[] workers;
+    private Semaphore queued;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private int nextRangeWorker = 0;
+
+    // 进度
+    private final AtomicLong loadedTasks = new AtomicLong();
+    private final AtomicLong litCells = new AtomicLong();
+    private final AtomicLong totalTasks = new AtomicLong();
+    private final AtomicLong totalCells = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: BulkLoader <场景文件> [--workers N] [--replace]");
+            return;
+        }
+        int workers = DEFAULT_WORKERS;
+        boolean replace = false;
+        for (int i = 1; i < args.length; i++) {
+            if ("--workers".equals(args[i]) && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if ("--replace".equals(args[i])) {
+                replace = true;
+            }
+        }
+        new BulkLoader().load(args[0], workers, replace);
+        RedisConnector.closePool();
+    }
+
+    /**
+     * 读取场景文件并写入 Redis
+     * @param file    场景文件
+     * @param workers 并行工作线程数
+     * @param replace 是否先清空涉及的小车任务列表
+     */
+    public void load(String file, int workers, boolean replace) throws Exception {
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bulk-loader-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::printProgress, 1, 1, TimeUnit.SECONDS);
+        this.workers = new ExecutorService[Math.max(1, workers)];
+        for (int i = 0; i < this.workers.length; i++) {
+            String name = "bulk-loader-" + i;
+            this.workers[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+        }
+        queued = new Semaphore(this.workers.length * BATCHES_PER_WORKER);
+        try {
+            // 1. 逐行读取，批次满时提交
+            read(file, replace);
+            // 2. 提交剩余批次并等待全部写完
+            for (Map.Entry<Integer, List<String>> entry : tasks.entrySet()) {
+                submitTasks(entry.getKey(), entry.getValue());
+            }
+            tasks.clear();
+            submitRanges();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            // 3. 地图直接写入，不经过前沿索引脚本，需重建索引
+            if (mapWidth > 0) {
+                new FrontierIndex(MAP_KEY, mapWidth, mapLength).rebuild();
+            }
+        } finally {
+            for (ExecutorService worker : this.workers) {
+                worker.shutdownNow();
+            }
+            reporter.shutdownNow();
+        }
+        printProgress();
+        System.out.println("[批量导入] 键 " + values.size() + "，小车 " + cars.size() + "，任务 " + totalTasks.get()
+                + "，地图 " + totalCells.get() + " 格");
+        System.out.printf("[批量导入] 完成，耗时 %.2f 秒%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private void read(String file, boolean replace) throws Exception {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 3);
+                try {
+                    switch (parts[0]) {
+                        case "set":
+                            set(parts[1], parts[2]);
+                            break;
+                        case "task":
+                            int car = Integer.parseInt(parts[1]);
+                            if (cars.add(car) && replace) {
+                                clearTasks(car); // 首次出现时先清空（与后续批次在同一工作线程中按序执行）
+                            }
+                            List<String> batch = tasks.computeIfAbsent(car, k -> new ArrayList<>());
+                            batch.add(parts[2]);
+                            totalTasks.incrementAndGet();
+                            if (batch.size() >= TASK_BATCH) {
+                                tasks.remove(car);
+                                submitTasks(car, batch);
+                            }
+                            break;
+                        case "light":
+                            String[] rect = line.split("\\s+");
+                            light(Integer.parseInt(rect[1]), Integer.parseInt(rect[2]),
+                                    Integer.parseInt(rect[3]), Integer.parseInt(rect[4]), lineNumber);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("未知指令 " + parts[0]);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("场景文件第 " + lineNumber + " 行格式错误: " + line, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 字符串键立即写入（地图尺寸在 light 之后修改会使已换算的区间错位，直接报错）
+     */
+    private void set(String key, String value) {
+        if (mapWidth > 0 && ("mapWidth".equals(key) || "mapLength".equals(key))) {
+            throw new IllegalStateException("地图尺寸 " + key + " 需在 light 之前设置");
+        }
+        values.put(key, value);
+        RedisConnector.set(key, value);
+    }
+
+    /**
+     * 把矩形裁剪到地图范围内并按行拆分为连续区间（超出 mapWidth 的部分不会折到下一行，超出 mapLength 的行被丢弃）
+     */
+    private void light(int x, int y, int w, int h, int lineNumber) throws Exception {
+        if (mapWidth < 0) {
+            mapWidth = mapDimension("mapWidth");
+            mapLength = mapDimension("mapLength");
+        }
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int right = (int) Math.min(mapWidth, (long) x + w);
+        int bottom = (int) Math.min(mapLength, (long) y + h);
+        if (right - left != w || bottom - top != h) {
+            System.err.println("[批量导入] 第 " + lineNumber + " 行地图区域超出 " + mapWidth + "x" + mapLength
+                    + "，已裁剪");
+        }
+        for (int row = top; row < bottom && left < right; row++) {
+            ranges.add(new long[]{(long) row * mapWidth + left, right - left});
+            totalCells.addAndGet(right - left);
+            if (ranges.size() >= RANGE_BATCH) {
+                submitRanges();
+            }
+        }
+    }
+
+    private void clearTasks(int car) throws InterruptedException {
+        String key = taskKey(car);
+        submit(car, () -> {
+            try (Jedis jedis = RedisConnector.getConnection()) {
+                jedis.del(key);
+            }
+        });
+    }
+
+    private void submitTasks(int car, List<String> batch) throws InterruptedException {
+        String key = taskKey(car);
+        submit(car, () -> RedisConnector.rpushAll(key, batch, loadedTasks::addAndGet));
+    }
+
+    private void submitRanges() throws InterruptedException {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        List<long[]> batch = ranges;
+        ranges = new ArrayList<>();
+        submit(nextRangeWorker++, () -> RedisConnector.setBitRanges(MAP_KEY, batch, litCells::addAndGet));
+    }
+
+    /**
+     * 交给固定的工作线程（同一编号总在同一线程中按提交顺序执行）；排队批次已满时阻塞读取
+     */
+    private void submit(int stripe, Runnable batch) throws InterruptedException {
+        queued.acquire();
+        futures.add(workers[Math.floorMod(stripe, workers.length)].submit(() -> {
+            try {
+                batch.run();
+            } finally {
+                queued.release();
+            }
+        }));
+    }
+
+    private static String taskKey(int car) {
+        return "Car00" + car + "TaskList";
+    }
+
+    /**
+     * 地图尺寸：优先取场景文件中的值，否则读取 Redis
+     */
+    private int mapDimension(String key) {
+        String value = values.containsKey(key) ? values.get(key) : RedisConnector.get(key);
+        if (value == null) {
+            throw new IllegalStateException("缺少地图尺寸 " + key + "，无法换算地图区域");
+        }
+        return Integer.parseInt(value);
+    }
+
+    private void printProgress() {
+        System.out.println("[批量导入] 任务 " + loadedTasks.get() + "/" + totalTasks.get()
+                + "，地图 " + litCells.get() + "/" + totalCells.get() + " 格");
+    }
+}
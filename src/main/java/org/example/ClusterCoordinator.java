@@ -0,0 +1,247 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Control 集群协调器（基于 Redis 租约）
+ * 功能：多个 Control 节点按哈希槽划分小车（槽 = 小车编号 % SLOT_COUNT），
+ * 每个槽由一个节点持有限时租约；节点加入或宕机时按汇合哈希（rendezvous hashing）重新分配；
+ * 地图全亮检测、显示器信号等全局任务只由选出的主节点执行
+ *
+ * 节点存活与停止信号都以 Redis 服务器时间（TIME）为准，不比较各节点的本地时钟；
+ * 本地租约有效期用单调时钟从发出续约前开始计算，不受系统时间调整影响
+ */
+public class ClusterCoordinator {
+    private static final String NODES_KEY = "control:nodes";       // 存活节点（zset，分数为过期时间）
+    private static final String SLOT_KEY_PREFIX = "control:slot:"; // 槽租约
+    private static final String LEADER_KEY = "control:leader";     // 主节点租约
+    private static final String STOP_KEY = "control:stop";         // 全局停止信号（值为发出时的Redis服务器时间）
+    private static final int SLOT_COUNT = 64;                      // 哈希槽数量
+    private static final long LEASE_MILLIS = 5000;                 // 租约时长（毫秒）
+    private static final long RENEW_INTERVAL = 1000;               // 续约间隔（毫秒）
+    private static final long SAFETY_MILLIS = 500;                 // 本地判定租约失效的提前量（毫秒）
+
+    // 持有则续约，空闲则抢占
+    private static final String ACQUIRE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "elseif redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+            "  return 1 " +
+            "else " +
+            "  return 0 " +
+            "end";
+    // 仅释放自己持有的租约
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "  return redis.call('del', KEYS[1]) " +
+            "else " +
+            "  return 0 " +
+            "end";
+    // 以服务器时间写入停止信号并返回该时间
+    private static final String STOP_SCRIPT =
+            "local t = redis.call('time') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) " +
+            "redis.call('set', KEYS[1], now, 'PX', ARGV[1]) " +
+            "return now";
+
+    private final String nodeId;
+    private final Set<Integer> ownedSlots = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "control-cluster-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean leader = false;
+    private volatile long leaseValidUntil;       // 最近一次续约成功后租约的本地有效期（System.nanoTime）
+    private long joinedAt = 0;                   // 首次心跳时的Redis服务器时间（早于该时间的停止信号属于上一次运行）
+    private volatile boolean stopRequested = false;
+    private volatile int liveNodes = 0;
+
+    public ClusterCoordinator() {
+        this.nodeId = UUID.randomUUID().toString();
+        this.leaseValidUntil = System.nanoTime(); // 首次续约前租约无效
+    }
+
+    /**
+     * 启动心跳（注册节点、续约/抢占槽租约与主节点租约）
+     */
+    public void start() {
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                renew();
+            } catch (Exception e) {
+                System.err.println("[集群] 续约失败: " + e.getMessage());
+            }
+        }, 0, RENEW_INTERVAL, TimeUnit.MILLISECONDS);
+        System.out.println("[集群] 节点已启动: " + nodeId);
+    }
+
+    private void renew() {
+        long renewStart = System.nanoTime(); // 租约有效期从发出续约前算起，只会比服务端更早失效
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            // 1. 以服务器时间注册心跳并剔除过期节点
+            long now = serverTime(jedis);
+            if (joinedAt == 0) {
+                joinedAt = now;
+            }
+            jedis.zadd(NODES_KEY, now + LEASE_MILLIS, nodeId);
+            jedis.zremrangeByScore(NODES_KEY, Double.NEGATIVE_INFINITY, now);
+            List<String> nodes = new ArrayList<>(jedis.zrangeByScore(NODES_KEY, now, Double.POSITIVE_INFINITY));
+            Collections.sort(nodes);
+            liveNodes = nodes.size();
+
+            // 2. 先放弃不再属于本节点的槽（先更新本地状态，再释放租约）
+            List<String> leaseArgs = Arrays.asList(nodeId, String.valueOf(LEASE_MILLIS));
+            List<String> releaseArgs = Collections.singletonList(nodeId);
+            Pipeline pipeline = jedis.pipelined();
+            List<Integer> wanted = new ArrayList<>();
+            List<Response<Object>> acquired = new ArrayList<>();
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                List<String> keys = Collections.singletonList(SLOT_KEY_PREFIX + slot);
+                if (nodeId.equals(ownerOf(slot, nodes))) {
+                    wanted.add(slot);
+                    acquired.add(pipeline.eval(ACQUIRE_SCRIPT, keys, leaseArgs));
+                } else if (ownedSlots.remove(slot)) {
+                    pipeline.eval(RELEASE_SCRIPT, keys, releaseArgs);
+                }
+            }
+            // 3. 主节点租约与全局停止信号
+            Response<Object> leaderResult = pipeline.eval(ACQUIRE_SCRIPT,
+                    Collections.singletonList(LEADER_KEY), leaseArgs);
+            Response<String> stop = pipeline.get(STOP_KEY);
+            pipeline.sync();
+
+            for (int i = 0; i < wanted.size(); i++) {
+                if (Long.valueOf(1L).equals(acquired.get(i).get())) {
+                    ownedSlots.add(wanted.get(i));
+                } else {
+                    ownedSlots.remove(wanted.get(i)); // 旧节点尚未释放，下次心跳再抢
+                }
+            }
+            boolean wasLeader = leader;
+            leader = Long.valueOf(1L).equals(leaderResult.get());
+            if (leader != wasLeader) {
+                System.out.println("[集群] " + (leader ? "成为主节点" : "不再是主节点"));
+            }
+            // 4. 停止信号早于本节点加入时属于上一次运行，忽略；由主节点清除，避免重启后立即停止
+            String stopAt = stop.get();
+            if (stopAt != null && Long.parseLong(stopAt) < joinedAt) {
+                if (leader) {
+                    jedis.eval(RELEASE_SCRIPT, Collections.singletonList(STOP_KEY), Collections.singletonList(stopAt));
+                    System.out.println("[集群] 已清除上一次运行遗留的停止信号");
+                }
+            } else if (stopAt != null) {
+                stopRequested = true;
+            }
+            leaseValidUntil = renewStart + TimeUnit.MILLISECONDS.toNanos(LEASE_MILLIS - SAFETY_MILLIS);
+        }
+    }
+
+    /**
+     * Redis 服务器时间（毫秒）
+     */
+    private static long serverTime(Jedis jedis) {
+        List<String> time = jedis.time();
+        return Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+    }
+
+    /**
+     * 汇合哈希：对每个槽选出得分最高的存活节点，节点增减时只移动必要的槽
+     */
+    private static String ownerOf(int slot, List<String> nodes) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long score = mix(node.hashCode() * 31L + slot);
+            if (owner == null || score > best) {
+                owner = node;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private boolean leaseValid() {
+        return System.nanoTime() - leaseValidUntil < 0;
+    }
+
+    /** 本节点是否负责该小车（租约失效时一律返回false，避免与接管节点重复发送） */
+    public boolean ownsCar(int carIndex) {
+        return leaseValid() && ownedSlots.contains(carIndex % SLOT_COUNT);
+    }
+
+    /** 本节点是否为主节点 */
+    public boolean isLeader() {
+        return leaseValid() && leader;
+    }
+
+    /** 是否收到全局停止信号 */
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /** 当前持有的槽数量 */
+    public int ownedSlotCount() {
+        return ownedSlots.size();
+    }
+
+    /** 存活节点数量 */
+    public int liveNodeCount() {
+        return liveNodes;
+    }
+
+    /**
+     * 通知所有节点停止（由主节点在地图全亮时调用）
+     */
+    public void requestStop() {
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            jedis.eval(STOP_SCRIPT, Collections.singletonList(STOP_KEY),
+                    Collections.singletonList(String.valueOf(LEASE_MILLIS * 12)));
+        }
+        stopRequested = true;
+    }
+
+    /**
+     * 退出集群：停止心跳并释放全部租约，其他节点在下一次心跳接管
+     */
+    public void close() {
+        heartbeat.shutdownNow();
+        leaseValidUntil = System.nanoTime();
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            List<String> releaseArgs = Collections.singletonList(nodeId);
+            Pipeline pipeline = jedis.pipelined();
+            for (Integer slot : ownedSlots) {
+                pipeline.eval(RELEASE_SCRIPT, Collections.singletonList(SLOT_KEY_PREFIX + slot), releaseArgs);
+            }
+            pipeline.eval(RELEASE_SCRIPT, Collections.singletonList(LEADER_KEY), releaseArgs);
+            pipeline.zrem(NODES_KEY, nodeId);
+            pipeline.sync();
+        } catch (Exception e) {
+            System.err.println("[集群] 释放租约失败，等待租约自然过期: " + e.getMessage());
+        }
+        ownedSlots.clear();
+        leader = false;
+    }
+}
@@ -1,8 +1,14 @@
 package org.example;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.StreamGroupInfo;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisExhaustedPoolException;
 
 import javax.jms.JMSException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -11,11 +17,44 @@ public class Control{
 
     // 新增：存储导航状态的旧值（初始设为-1确保首次触发）
     private String lastNaViFinish = "-1";
-    // ActiveMQ 连接配置
+    // ActiveMQ 连接配置（三个队列共享一条连接，自动使用 failover 传输）
     private static final String BROKER_URL = "tcp://192.168.43.69:61616";
     private static final String CAR_QUEUE = "UpdateCar";
     private static final String NAVI_QUEUE = "UpdateNavigate";
     private static final String DISPLAY_QUEUE = "UpdateView";
+    // 发送通道：每个队列独立线程和会话，显示器积压时不影响小车/导航指令
+    private static final int COMMAND_LANE_CAPACITY = 1024;  // 小车/导航通道容量（满时转存发件箱，从不丢弃）
+    private static final int DISPLAY_LANE_CAPACITY = 8;     // 显示器通道容量（满时丢弃最旧的刷新）
+    // 小车任务队列后端：true 时使用 Redis Streams 消费组（阻塞读取），否则每次检测轮询任务列表
+    private static final boolean USE_TASK_STREAM = Boolean.getBoolean("control.taskStream");
+    private static final String TASK_STREAM_GROUP = "Control";
+    // 地图本地副本文件（内存映射），未配置时每次直接查询Redis
+    private static final String MAP_REPLICA_FILE = System.getProperty("control.mapReplica");
+    // 集群模式：多个 Control 节点按租约划分小车，全局任务由主节点执行
+    private static final boolean CLUSTER_MODE = Boolean.getBoolean("control.cluster");
+    // 降级模式：Redis不可用时沿用最近一次成功读取的状态，超过该时长（毫秒）后停止派发
+    private static final long STALE_LIMIT_MS = Long.getLong("control.staleLimitMs", 3000);
+    // 录制模式：把每个周期的输入与输出写入轨迹文件，供 TickReplayer 回放
+    private static final String RECORD_FILE = System.getProperty("control.record");
+    // 前沿索引：导航指令附带空闲小车的目标格子（"Car00i:x,y"），导航器无需下载整张地图
+    private static final boolean USE_FRONTIER = Boolean.getBoolean("control.frontier");
+    // 按Broker队列积压限流：超过高水位暂停派发并合并重复指令，回落到低水位后补发
+    // 水位可按队列配置（control.throttle.<队列名>.high/low），否则使用全局默认值
+    private static final boolean USE_THROTTLE = Boolean.getBoolean("control.throttle");
+    private static final long THROTTLE_INTERVAL = Long.getLong("control.throttle.interval", 1000);
+    private static final long THROTTLE_HIGH = Long.getLong("control.throttle.high", 500);
+    private static final long THROTTLE_LOW = Long.getLong("control.throttle.low", 50);
+    // 指令确认：小车在确认队列上回复执行过的指令，未确认前不重复发送，超时按指数退避重发
+    private static final boolean USE_ACK = Boolean.getBoolean("control.ack");
+    private static final String CAR_ACK_QUEUE = System.getProperty("control.ack.carQueue", "CarAck");
+    private static final String NAVI_ACK_QUEUE = System.getProperty("control.ack.naviQueue", "NaviAck");
+    private static final long ACK_TIMEOUT = Long.getLong("control.ack.timeoutMs", 3000);
+    private static final long ACK_MAX_BACKOFF = Long.getLong("control.ack.maxBackoffMs", 30000);
+    private static final int ACK_MAX_ATTEMPTS = Integer.getInteger("control.ack.maxAttempts", 5);
+    // 近端缓存：mapWidth、mapLength、CarNumber 运行期间几乎不变，缓存解码后的值（0表示不缓存）
+    private static final long NEAR_CACHE_TTL = Long.getLong("control.nearCacheTtlMs", 0);
+    // 逐条打印已发送的指令（每周期每辆车一行，默认关闭）
+    private static final boolean VERBOSE = Boolean.getBoolean("control.verbose");
     public long endTime;
 
     // 数据库状态标志
@@ -29,74 +68,494 @@ public class Control{
     // 新增：定时任务句柄用于停止
     public ScheduledFuture<?> statusCheckFuture;
     // 消息队列工具
-    private final TaskProducer carQueue;
-    private final TaskProducer naviQueue;
-    private final TaskProducer displayQueue;
+    private final TaskSink carQueue;
+    private final TaskSink naviQueue;
+    private final TaskSink displayQueue;
+    private final List<TaskProducer> producers = new ArrayList<>();// 实际的ActiveMQ生产者（监控用）
+    private final List<DispatchThrottle> throttles = new ArrayList<>();
+    private HashedWheelTimer ackTimer;
+    private AckTracker carAcks;
+    private AckTracker naviAcks;
+    private final List<ActiveMQTaskQueue> ackQueues = new ArrayList<>();
+    @SuppressWarnings("unchecked")
+    private Response<Long>[] lengthResponses = new Response[1];// 复用的任务列表长度响应数组
+    private final List<Response<List<StreamGroupInfo>>> groupResponses = new ArrayList<>();// 复用的消费组信息响应列表
+    private final ControlSnapshot[] snapshots = {new ControlSnapshot(), new ControlSnapshot()};// 交替复用的状态快照
+    private boolean[] idleCars = new boolean[1];// 复用的空闲小车数组（前沿索引）
+    private String[] naviCommandTargets = new String[1];// 下标为小车编号，上次附带的导航目标
+    private String[] naviCommandsWithTarget = new String[1];// 下标为小车编号，上次拼接的导航指令
+    private TickRecorder recorder;
+    private boolean taskStreamMode = USE_TASK_STREAM;// 回放时使用录制的任务流模式
+    private List<TickRecorder.Output> replaySuppressed;// 回放时本周期录制的确认抑制指令（非回放时为null）
+    private volatile RedisStreamTaskQueue carTaskStream;// 确认队列的消费线程据此确认任务流条目
+    private MapReplica mapReplica;
+    private FrontierIndex frontierIndex;
+    private ClusterCoordinator cluster;
+    // 最近一次成功读取的状态快照及降级监控指标
+    private volatile ControlSnapshot lastGoodState;
+    private volatile boolean degraded = false;
+    private long freshTicks = 0;
+    private long degradedTicks = 0;
+    private long skippedTicks = 0;
 
     // 线程池
     public static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
     public  Control() throws JMSException {
         // 初始化消息队列
-        this.carQueue = new TaskProducer(BROKER_URL, CAR_QUEUE);
-        this.naviQueue = new TaskProducer(BROKER_URL, NAVI_QUEUE);
-        this.displayQueue = new TaskProducer(BROKER_URL, DISPLAY_QUEUE);
+        TaskProducer car = new TaskProducer(BROKER_URL, CAR_QUEUE,
+                COMMAND_LANE_CAPACITY, SendLane.OverflowPolicy.SPILL);
+        TaskProducer navi = new TaskProducer(BROKER_URL, NAVI_QUEUE,
+                COMMAND_LANE_CAPACITY, SendLane.OverflowPolicy.SPILL);
+        TaskProducer display = new TaskProducer(BROKER_URL, DISPLAY_QUEUE,
+                DISPLAY_LANE_CAPACITY, SendLane.OverflowPolicy.DROP_OLDEST);
+        producers.add(car);
+        producers.add(navi);
+        producers.add(display);
+        TaskSink carSink = throttle(car, CAR_QUEUE);
+        TaskSink naviSink = throttle(navi, NAVI_QUEUE);
+        TaskSink displaySink = throttle(display, DISPLAY_QUEUE);
+
+        if (RECORD_FILE != null) {
+            try {
+                recorder = new TickRecorder(RECORD_FILE);
+            } catch (Exception e) {
+                System.err.println("[录制] 无法创建轨迹文件: " + e.getMessage());
+            }
+        }
+        if (recorder != null) {
+            this.carQueue = recorder.wrap(carSink, TickRecorder.CAR);
+            this.naviQueue = recorder.wrap(naviSink, TickRecorder.NAVI);
+            this.displayQueue = recorder.wrap(displaySink, TickRecorder.DISPLAY);
+        } else {
+            this.carQueue = carSink;
+            this.naviQueue = naviSink;
+            this.displayQueue = displaySink;
+        }
+
+        if (USE_ACK) {
+            startAckTracking(carSink, naviSink);
+        }
+        if (NEAR_CACHE_TTL > 0) {
+            RedisConnector.cacheKey("CarNumber", NEAR_CACHE_TTL);
+            RedisConnector.cacheKey("mapWidth", NEAR_CACHE_TTL);
+            RedisConnector.cacheKey("mapLength", NEAR_CACHE_TTL);
+        }
+        if (CLUSTER_MODE) {
+            cluster = new ClusterCoordinator();
+            cluster.start();
+        }
+        if (USE_TASK_STREAM) {
+            startCarTaskStream();
+        }
+    }
+
+    /**
+     * 使用给定发送目标构造（回放引擎以内存替身代替ActiveMQ，不启动集群与任务流）
+     */
+    Control(TaskSink carQueue, TaskSink naviQueue, TaskSink displayQueue) {
+        this.carQueue = carQueue;
+        this.naviQueue = naviQueue;
+        this.displayQueue = displayQueue;
+    }
+
+    /**
+     * 按配置为队列加上积压限流（未启用时直接返回生产者）
+     */
+    private TaskSink throttle(TaskProducer producer, String queueName) throws JMSException {
+        if (!USE_THROTTLE) {
+            return producer;
+        }
+        long high = Long.getLong("control.throttle." + queueName + ".high", THROTTLE_HIGH);
+        long low = Long.getLong("control.throttle." + queueName + ".low", THROTTLE_LOW);
+        DispatchThrottle throttle = new DispatchThrottle(queueName, producer,
+                producer.startMonitor(THROTTLE_INTERVAL), high, low);
+        throttles.add(throttle);
+        return throttle;
+    }
+
+    /**
+     * 启动指令确认跟踪：超时定时器与两个确认队列的消费者
+     * （超时重发在定时器线程中直接走未录制的发送目标，不计入当前周期）
+     */
+    private void startAckTracking(TaskSink carSink, TaskSink naviSink) throws JMSException {
+        ackTimer = new HashedWheelTimer("ack-timer", 100, TimeUnit.MILLISECONDS, 512);
+        carAcks = new AckTracker(CAR_QUEUE, carSink, ackTimer, ACK_TIMEOUT, ACK_MAX_BACKOFF, ACK_MAX_ATTEMPTS);
+        naviAcks = new AckTracker(NAVI_QUEUE, naviSink, ackTimer, ACK_TIMEOUT, ACK_MAX_BACKOFF, ACK_MAX_ATTEMPTS);
+        listenAcks(CAR_ACK_QUEUE, this::onCarAck);
+        listenAcks(NAVI_ACK_QUEUE, naviAcks::acknowledge);
+    }
+
+    private void listenAcks(String queueName, ActiveMQTaskQueue.TaskHandler<String> handler) throws JMSException {
+        ActiveMQTaskQueue ackQueue = new ActiveMQTaskQueue(BROKER_URL, queueName);
+        ackQueue.startConsumer(String.class, handler);
+        ackQueues.add(ackQueue);
+    }
+
+    /**
+     * 小车确认：清除待确认指令，任务流模式下同时确认已执行完成的任务流条目
+     */
+    private void onCarAck(String command) {
+        if (carAcks != null) {
+            carAcks.acknowledge(command);
+        }
+        RedisStreamTaskQueue stream = carTaskStream;
+        if (stream != null) {
+            stream.complete(command);
+        }
+    }
 
+    /**
+     * 发送指令（启用确认时该车已有相同的待确认指令则不发送，录制时记下未发送的指令）
+     * @param queueId 队列编号（TickRecorder.CAR/NAVI）
+     * @return 是否实际发送
+     */
+    private boolean dispatch(AckTracker tracker, TaskSink queue, byte queueId, int carIndex, String cmd)
+            throws JMSException {
+        if (tracker == null) {
+            if (replaySuppressed != null && replaySuppressed.contains(new TickRecorder.Output(queueId, cmd))) {
+                return false; // 回放：录制时该指令仍在等待确认
+            }
+            queue.sendTask(cmd);
+            return true;
+        }
+        boolean sent = tracker.dispatch(queue, carIndex, cmd);
+        if (!sent && recorder != null) {
+            recorder.onSuppressed(queueId, cmd);
+        }
+        return sent;
+    }
 
+    /**
+     * 回放：下一个周期按录制时的任务流模式与确认抑制结果执行
+     * @param suppressed 录制时因等待确认而未发送的指令
+     */
+    void replayContext(boolean taskStream, List<TickRecorder.Output> suppressed) {
+        this.taskStreamMode = taskStream;
+        this.replaySuppressed = suppressed;
+    }
+
+    /**
+     * 按队列编号（TickRecorder.CAR/NAVI/DISPLAY）的限流位
+     */
+    private byte throttledQueues() {
+        byte mask = 0;
+        for (int i = 0; i < throttles.size(); i++) {
+            if (throttles.get(i).isThrottled()) {
+                mask |= (byte) (1 << i); // 限流按小车、导航、显示器的顺序创建
+            }
+        }
+        return mask;
+    }
+
+    /** 小车是否有待确认的小车或导航指令（未启用确认时为false） */
+    public boolean isCarInFlight(int carIndex) {
+        return (carAcks != null && carAcks.isInFlight(carIndex))
+                || (naviAcks != null && naviAcks.isInFlight(carIndex));
+    }
 
+    /**
+     * 本节点是否负责该小车（非集群模式下负责全部小车）
+     */
+    private boolean ownsCar(int carIndex) {
+        return cluster == null || cluster.ownsCar(carIndex);
+    }
+
+    /**
+     * 本节点是否执行全局任务（显示器刷新、地图全亮检测）
+     */
+    private boolean isLeader() {
+        return cluster == null || cluster.isLeader();
+    }
+
+    /**
+     * 启动小车任务流消费者：有新任务时立即派发，不再依赖定时轮询
+     * 指令附带任务内容（"00i:任务"），小车在确认队列上回复执行完成后才确认条目，
+     * 执行期间条目保持待确认，读取状态时该车不视为空闲
+     * 集群模式下由消费组在各节点间分配条目，无需再按租约过滤
+     */
+    private void startCarTaskStream() throws JMSException {
+        carTaskStream = new RedisStreamTaskQueue(TASK_STREAM_GROUP, "Control-" + ProcessHandle.current().pid());
+        if (!USE_ACK) {
+            listenAcks(CAR_ACK_QUEUE, this::onCarAck); // 完成信号来自小车确认队列
+        }
+        carTaskStream.startConsumer(() -> CarNumber, (carIndex, task) -> {
+            // 小车未开启时不派发，稍后由 XAUTOCLAIM 重新认领
+            if (!Objects.equals(IsCarOpen, "1")) {
+                throw new IllegalStateException("小车未开启");
+            }
+            String cmd = task == null ? TickKeys.carCommand(carIndex) : TickKeys.carCommand(carIndex) + ":" + task;
+            carQueue.sendTask(cmd);
+            if (VERBOSE) {
+                System.out.println("[小车] 指令已发送: " + cmd);
+            }
+            return cmd;
+        });
     }
 
     /**
      * 检测系统状态并触发消息发送
      */
     public void checkSystemStatus() {
+    long tickId = TraceContext.beginTick(); // 本周期发出的指令都带上周期ID
+    TraceEvents.TickEvent tickEvent = TraceEvents.tickEnabled() ? new TraceEvents.TickEvent() : null;
+    if (tickEvent != null) {
+        tickEvent.begin();
+    }
 try {
-    // 1. 从数据库读取状态（模拟）
-    // refreshDatabaseState();
-    IsCarOpen = RedisConnector.get("IsCarOpen");
-    IsNaviOpen = RedisConnector.get("IsNaviOpen");
-    IsViewOpen = RedisConnector.get("IsViewOpen");
-    IsNaViFinish =RedisConnector.get("IsNaviFinish");  // 读取导航状态值
-
-    // 1. 显示器队列逻辑
-    if (IsViewOpen!=null&&Objects.equals(IsViewOpen, "1")) {
+    // 0. 集群模式下收到主节点的全局停止信号
+    if (cluster != null && cluster.isStopRequested()) {
+        System.out.println("[集群] 收到停止信号");
+        stopAllTasks();
+        return;
+    }
+    // 1. 补发限流恢复后的待发指令（在检测线程中发送，不占用Broker统计的通知线程）
+    for (int i = 0; i < throttles.size(); i++) {
+        throttles.get(i).flushIfResumed();
+    }
+    // 2. 从数据库读取状态（Redis不可用时回退到最近一次成功读取的快照）
+    ControlSnapshot state = readState();
+    if (state == null) {
+        return; // 无可用快照或快照已过期，本次不派发
+    }
+    if (tickEvent != null) {
+        tickEvent.degraded = degraded;
+        tickEvent.carNumber = state.carNumber;
+    }
+    // 3. 根据快照派发指令
+    boolean mapAllOne = processTick(state, degraded);
+    if (recorder != null) {
+        recorder.recordTick(state, degraded, taskStreamMode, throttledQueues());
+    }
+    if (mapAllOne) {
+        if (cluster != null) {
+            cluster.requestStop(); // 通知其他节点一起停止
+        }
+        stopAllTasks();  // 停止定时任务并释放资源
+    }
+}
+catch (Exception e) {
+    System.err.println("【错误】checkSystemStatus 执行失败: " + e.getMessage());
+    e.printStackTrace();
+}
+finally {
+    if (recorder != null) {
+        recorder.discardTick(); // 周期执行失败时不把已发送的消息混入下一个周期
+    }
+    if (tickEvent != null) {
+        tickEvent.end();
+        if (tickEvent.shouldCommit()) {
+            tickEvent.tickId = tickId;
+            tickEvent.commit();
+        }
+    }
+    TraceContext.endTick();
+}
+    }
+
+    /**
+     * 根据状态快照派发指令（不访问Redis，回放引擎直接调用）
+     * @param state    本周期状态
+     * @param degraded 是否为降级运行（使用 last-known-good 快照）
+     * @return 地图是否已全亮
+     */
+    boolean processTick(ControlSnapshot state, boolean degraded) throws JMSException {
+    IsCarOpen = state.isCarOpen;
+    IsNaviOpen = state.isNaviOpen;
+    IsViewOpen = state.isViewOpen;
+    IsNaViFinish = state.isNaviFinish;  // 读取导航状态值
+    CarNumber = state.carNumber; // 任务流消费线程据此决定读取哪些流
+
+    // 1. 显示器队列逻辑（降级时显示器也读不到地图，暂停刷新）
+    if (!degraded && IsViewOpen!=null&&Objects.equals(IsViewOpen, "1") && isLeader()) {
         sendDisplayData();
     }
-    System.out.println(lastNaViFinish);
-    System.out.println(IsNaViFinish);
-// 2. 导航队列逻辑
-    if (IsNaviOpen!=null&&(!Objects.equals(IsNaviOpen, "0")) &&(!Objects.equals(lastNaViFinish,IsNaViFinish))) {
+// 2. 导航队列逻辑（需要最新的导航状态，降级时暂停）
+    if (!degraded && IsNaviOpen!=null&&(!Objects.equals(IsNaviOpen, "0")) &&(!Objects.equals(lastNaViFinish,IsNaViFinish))) {
 
-        sendNaviCommand();
+        sendNaviCommand(state);
 
 
     }
-    // 3. 小车队列逻辑
-    if (IsCarOpen!=null&&Objects.equals(IsCarOpen, "1")) {
-        handleCarMessages();
+    // 3. 小车队列逻辑（任务流模式下由消费线程派发）
+    if (!taskStreamMode && IsCarOpen!=null&&Objects.equals(IsCarOpen, "1")) {
+        handleCarMessages(state);
     }
 
 
 
-    // 4. 检测地图全亮（新增核心逻辑）
-    if (checkMapAllOne()) {
+    // 4. 检测地图全亮（新增核心逻辑，降级时不做判断）
+    if (!degraded && isLeader() && checkMapAllOne(state)) {
         System.out.println("地图全亮，停止所有任务");
         sendDisplayData();
         String data="#";
         displayQueue.sendTask("#");
-        System.out.println("[显示器] 数据已发送: " + data);
-        stopAllTasks();  // 停止定时任务并释放资源
+        if (VERBOSE) {
+            System.out.println("[显示器] 数据已发送: " + data);
+        }
+        return true;
     }
-}
-catch (Exception e) {
-    System.err.println("【错误】checkSystemStatus 执行失败: " + e.getMessage());
-    e.printStackTrace();
-}
+    return false;
     }
+    /**
+     * 读取本周期状态：成功时更新 last-known-good 快照；
+     * Redis 不可用（连接或连接池异常）时在 STALE_LIMIT_MS 内以快照降级运行，超时返回null；数据错误直接抛出
+     */
+    private ControlSnapshot readState() {
+        try {
+            ControlSnapshot state = readFreshState();
+            if (degraded) {
+                degraded = false;
+                System.out.println("[降级] Redis已恢复，退出降级模式（降级周期 " + degradedTicks
+                        + "，跳过周期 " + skippedTicks + "）");
+            }
+            lastGoodState = state;
+            freshTicks++;
+            return state;
+        } catch (JedisConnectionException | JedisExhaustedPoolException e) {
+            // 只有连接与连接池异常视为 Redis 不可用；脚本错误、WRONGTYPE 等数据错误照常抛出，不进入降级
+            ControlSnapshot last = lastGoodState;
+            if (last == null || last.ageMillis() > STALE_LIMIT_MS) {
+                skippedTicks++;
+                degraded = true;
+                return null;
+            }
+            if (!degraded) {
+                degraded = true;
+                System.err.println("[降级] Redis不可用，使用 " + last.ageMillis() + " 毫秒前的状态继续派发: "
+                        + e.getMessage());
+            }
+            degradedTicks++;
+            return last;
+        }
+    }
+
+    /**
+     * 一次管道读取全部状态标志与数量，再一次管道读取各小车任务列表长度（任务流模式下读取消费组信息）
+     * 键名预编码、标志与数值按字节解码、响应数组与快照复用，稳态下不为键名、解码和快照分配对象
+     * （填充的是不同于 last-known-good 的那个快照，读取中途失败时降级快照不受影响）
+     */
+    private ControlSnapshot readFreshState() {
+        long readAt = System.currentTimeMillis();
+        TraceEvents.RedisPhaseEvent phase = beginPhase();
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            Pipeline pipeline = jedis.pipelined();
+            Response<byte[]> isCarOpenRaw = pipeline.get(TickKeys.IS_CAR_OPEN);
+            Response<byte[]> isNaviOpenRaw = pipeline.get(TickKeys.IS_NAVI_OPEN);
+            Response<byte[]> isViewOpenRaw = pipeline.get(TickKeys.IS_VIEW_OPEN);
+            Response<byte[]> isNaviFinishRaw = pipeline.get(TickKeys.IS_NAVI_FINISH);
+            NearCache cache = RedisConnector.nearCache(); // 命中时不向管道加入命令
+            NearCache.Read carNumber = cache.read(pipeline, "CarNumber");
+            NearCache.Read mapWidth = cache.read(pipeline, "mapWidth");
+            NearCache.Read mapLength = cache.read(pipeline, "mapLength");
+            Response<Long> mapBitCount = MAP_REPLICA_FILE == null ? pipeline.bitcount(TickKeys.MAP) : null;
+            pipeline.sync();
+            phase = endPhase(phase, "status");
+            String isCarOpen = TickKeys.flag(isCarOpenRaw.get());
+            String isNaviOpen = TickKeys.flag(isNaviOpenRaw.get());
+            String isViewOpen = TickKeys.flag(isViewOpenRaw.get());
+            String isNaviFinish = TickKeys.flag(isNaviFinishRaw.get());
+
+            int number = carNumber.getInt(0);
+            ControlSnapshot snapshot = snapshots[snapshots[0] == lastGoodState ? 1 : 0];
+            boolean[] carHasTasks = snapshot.taskBuffer(number);
+            if (number > 0 && carTaskStream != null) {
+                // 任务流模式下任务不在任务列表中，按消费组的未读取/未确认条目判断
+                List<Response<List<StreamGroupInfo>>> groups = groupResponses;
+                groups.clear();
+                for (int i = 1; i <= number; i++) {
+                    groups.add(RedisStreamTaskQueue.groupInfo(pipeline, i));
+                }
+                pipeline.sync();
+                for (int i = 1; i <= number; i++) {
+                    carHasTasks[i] = carTaskStream.hasBacklog(groups.get(i - 1));
+                }
+                groups.clear(); // 不持有上一周期的响应
+                phase = endPhase(phase, "taskStreams");
+            } else if (number > 0) {
+                Response<Long>[] lengths = lengthResponses(number);
+                for (int i = 1; i <= number; i++) {
+                    lengths[i] = pipeline.llen(TickKeys.carTaskKey(i));
+                }
+                pipeline.sync();
+                for (int i = 1; i <= number; i++) {
+                    carHasTasks[i] = lengths[i].get() > 0;
+                    lengths[i] = null; // 不持有上一周期的响应
+                }
+                phase = endPhase(phase, "taskLengths");
+            }
+
+            long mapCells = -1;
+            long mapLit = 0;
+            String[] naviTargets = null;
+            if (mapWidth.get() != null && mapLength.get() != null) {
+                int width = mapWidth.getInt(0);
+                int length = mapLength.getInt(0);
+                mapCells = (long) width * length;
+                MapReplica replica = mapReplica(mapCells);
+                if (replica != null) {
+                    replica.syncIfNeeded();
+                    mapLit = replica.bitCount();
+                } else {
+                    mapLit = mapBitCount != null ? mapBitCount.get() : RedisConnector.bitCount("map");
+                }
+                phase = endPhase(phase, "map");
+                // 本周期会发送导航指令时，为空闲小车挑选目标
+                if (USE_FRONTIER && isNaviOpen != null && !Objects.equals(isNaviOpen, "0")
+                        && !Objects.equals(lastNaViFinish, isNaviFinish)) {
+                    naviTargets = naviTargets(width, length, number, carHasTasks);
+                    endPhase(phase, "frontier");
+                }
+            }
+            snapshot.fill(isCarOpen, isNaviOpen, isViewOpen, isNaviFinish,
+                    number, mapCells, mapLit, naviTargets, readAt);
+            return snapshot;
+        }
+    }
+
+    /**
+     * 任务列表长度响应数组（下标为小车编号，只在检测线程中使用，小车数量增加时扩容）
+     */
+    @SuppressWarnings("unchecked")
+    private Response<Long>[] lengthResponses(int carNumber) {
+        if (lengthResponses.length <= carNumber) {
+            lengthResponses = new Response[carNumber + 1];
+        }
+        return lengthResponses;
+    }
+
+    /**
+     * 开始一个 Redis 读取阶段事件
+     */
+    private static TraceEvents.RedisPhaseEvent beginPhase() {
+        if (!TraceEvents.phaseEnabled()) {
+            return null; // 未录制时不创建事件对象
+        }
+        TraceEvents.RedisPhaseEvent event = new TraceEvents.RedisPhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * 结束并提交阶段事件，返回下一阶段的事件
+     */
+    private static TraceEvents.RedisPhaseEvent endPhase(TraceEvents.RedisPhaseEvent event, String name) {
+        if (event == null) {
+            return beginPhase();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tickId = TraceContext.currentTick();
+            event.phase = name;
+            event.commit();
+        }
+        return beginPhase();
+    }
+
     /**
      * 检测地图是否全为1（新增方法）
      */
-    private boolean checkMapAllOne() {
+    private boolean checkMapAllOne(ControlSnapshot state) {
        /* String map = RedisConnector.get("map");  // 假设地图数据存储在Redis的"map"键中
         if (map == null) return false;
         // 遍历所有字符检查是否为'1'
@@ -104,12 +563,9 @@ catch (Exception e) {
             if (c != '1') return false;
         }
         return true;}*/
-        //-----使用bitmap操作------//
+        //-----使用bitmap操作（计数已在读取状态时完成）------//
 
-        long XTotalNumbers = Long.parseLong(RedisConnector.get("mapWidth"));
-        long YTotalNumbers = Long.parseLong(RedisConnector.get("mapLength"));
-        long OneNumber = RedisConnector.bitCount("map");
-        if (OneNumber == XTotalNumbers * YTotalNumbers) {
+        if (state.mapCells >= 0 && state.mapLit == state.mapCells) {
             return true;
         } else
             return false;
@@ -117,6 +573,66 @@ catch (Exception e) {
 
 
 
+    /**
+     * 获取地图本地副本（未配置或打开失败时返回null，回退为直接查询Redis）
+     * @param cellCount 地图格子数，尺寸变化时重新打开副本
+     */
+    private MapReplica mapReplica(long cellCount) {
+        if (MAP_REPLICA_FILE == null) {
+            return null;
+        }
+        if (mapReplica != null && mapReplica.matches(cellCount)) {
+            return mapReplica;
+        }
+        try {
+            if (mapReplica != null) {
+                mapReplica.close();
+            }
+            mapReplica = new MapReplica(MAP_REPLICA_FILE, "map", cellCount);
+        } catch (Exception e) {
+            System.err.println("[地图副本] 打开失败: " + e.getMessage());
+            mapReplica = null;
+        }
+        return mapReplica;
+    }
+
+    /**
+     * 通过前沿索引为本节点负责的空闲小车挑选导航目标（地图尺寸变化时重建索引）
+     */
+    private String[] naviTargets(int width, int length, int carNumber, boolean[] carHasTasks) {
+        if (frontierIndex == null || !frontierIndex.matches(width, length)) {
+            frontierIndex = new FrontierIndex("map", width, length);
+        }
+        if (idleCars.length <= carNumber) {
+            idleCars = new boolean[carNumber + 1];
+        }
+        boolean[] idle = idleCars;
+        for (int i = 1; i <= carNumber; i++) {
+            idle[i] = ownsCar(i) && !carHasTasks[i];
+        }
+        return frontierIndex.targets(carNumber, idle);
+    }
+
+    /** 最近一个周期读取到的小车数量 */
+    public int getCarNumber() {
+        return CarNumber;
+    }
+
+    /** 成功读取状态的周期数 */
+    public long getFreshTicks() {
+        return freshTicks;
+    }
+
+    /** 以 last-known-good 快照降级运行的周期数 */
+    public long getDegradedTicks() {
+        return degradedTicks;
+    }
+
+    /** 快照过期而跳过派发的周期数 */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
     /**
      * 停止所有任务并释放资源（新增方法）
      */
@@ -142,20 +658,74 @@ catch (Exception e) {
         }
 
         // 3. 关闭Redis连接池
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (Exception e) {
+                System.err.println("关闭轨迹文件失败: " + e.getMessage());
+            }
+        }
+        if (cluster != null) {
+            cluster.close(); // 释放租约，其他节点立即接管
+        }
+        if (carTaskStream != null) {
+            carTaskStream.close();
+        }
+        if (mapReplica != null) {
+            try {
+                mapReplica.close();
+            } catch (Exception e) {
+                System.err.println("关闭地图副本失败: " + e.getMessage());
+            }
+        }
+        KeyspaceNotifier.close();
         RedisConnector.closePool();
         System.out.println("Redis连接已关闭");
 
         // 4. 关闭ActiveMQ连接
+        if (ackTimer != null) {
+            ackTimer.stop();
+        }
         try {
+            for (ActiveMQTaskQueue ackQueue : ackQueues) {
+                ackQueue.close();
+            }
             carQueue.close();
             naviQueue.close();
             displayQueue.close();
+            JmsConnectionManager.shutdown();
             System.out.println("ActiveMQ连接已关闭");
         } catch (JMSException e) {
             System.err.println("关闭消息队列失败: " + e.getMessage());
         }
 
         // 5. 完全退出程序
+        for (TaskProducer producer : producers) {
+            SendLane lane = producer.getLane();
+            System.out.println("[发送通道] " + lane.getName() + " 已发送 " + lane.getSentCount() + "，丢弃 " + lane.getDroppedCount()
+                    + "，转存 " + lane.getSpilledCount() + "，最长等待 " + lane.getMaxWaitMillis() + " 毫秒");
+        }
+        for (DispatchThrottle throttle : throttles) {
+            System.out.println("[限流] " + throttle.getName() + " 限流 " + throttle.getThrottleCount() + " 次，暂缓 "
+                    + throttle.getDeferredCount() + "，合并 " + throttle.getCoalescedCount());
+        }
+        for (AckTracker tracker : new AckTracker[]{carAcks, naviAcks}) {
+            if (tracker != null) {
+                System.out.println("[确认] " + tracker.getName() + " 发送 " + tracker.getSentCount() + "，确认 "
+                        + tracker.getAckedCount() + "，抑制 " + tracker.getSuppressedCount() + "，替换 "
+                        + tracker.getReplacedCount() + "，重发 "
+                        + tracker.getResentCount() + "，放弃 " + tracker.getExpiredCount() + "，待确认 "
+                        + tracker.getInFlightTotal());
+            }
+        }
+        NearCache cache = RedisConnector.nearCache();
+        if (NEAR_CACHE_TTL > 0) {
+            System.out.println("[近端缓存] 命中 " + cache.getHitCount() + "，未命中 " + cache.getMissCount()
+                    + "，失效 " + cache.getInvalidationCount());
+        }
+        RedisCircuitBreaker breaker = RedisConnector.circuitBreaker();
+        System.out.println("状态读取：正常 " + freshTicks + "，降级 " + degradedTicks + "，跳过 " + skippedTicks
+                + "；熔断器打开 " + breaker.getOpenCount() + " 次，快速失败 " + breaker.getRejectedCount() + " 次");
         System.out.println("程序退出");
         endTime = System.nanoTime();
         long duration = endTime - Main.startTime;
@@ -170,7 +740,9 @@ catch (Exception e) {
         try {
            String data="repaint";
             displayQueue.sendTask("repaint");
-            System.out.println("[显示器] 数据已发送: " + data);
+            if (VERBOSE) {
+                System.out.println("[显示器] 数据已发送: " + data);
+            }
         } catch (Exception e) {
             System.err.println("[显示器] 发送失败: " + e.getMessage());
         }
@@ -206,81 +778,74 @@ catch (Exception e) {
     /**
      * 优化后的处理小车消息队列方法
      */
-    private void handleCarMessages() {
+    private void handleCarMessages(ControlSnapshot state) {
         try {
-            // 1. 使用线程池并行处理小车任务
-            ExecutorService carExecutor = Executors.newFixedThreadPool(10); // 根据小车数量调整
-
-            String CarNumberString=RedisConnector.get("CarNumber");
-            if (CarNumberString==null) {
-                CarNumber=0;
-            }
-            // 2. 一次性获取所有小车数量
-          else
-              CarNumber = Integer.parseInt(RedisConnector.get("CarNumber"));
-
-            // 3. 使用Redis管道批量获取任务列表
-            try (Jedis jedis = RedisConnector.getConnection()) {
-                Pipeline pipeline = jedis.pipelined();
-
-                // 预先收集所有LRANGE命令
-                for (int i = 1; i <= CarNumber; i++) {
-                    pipeline.lrange("Car00" + i + "TaskList", 0, -1);
+            // 1. 小车数量与任务列表是否为空已在读取状态时通过管道一次性获取
+            for (int i = 1; i <= state.carNumber; i++) {
+                if (!ownsCar(i) || !state.hasTasks(i)) {
+                    continue; // 由其他节点负责或任务队列为空
                 }
-
-                // 批量执行并获取结果
-                List<Object> results = pipeline.syncAndReturnAll();
-
-                // 4. 并行处理每个小车
-                for (int i = 0; i < results.size(); i++) {
-                    final int carIndex = i + 1;
-                    @SuppressWarnings("unchecked")
-                    List<String> taskList = (List<String>) results.get(i);
-
-                    carExecutor.submit(() -> {
-                        try {
-                            if (taskList != null && !taskList.isEmpty()) {
-                                // 5. 直接发送最新任务（不反转列表）
-                                String cmd = "00" + carIndex;
-                                carQueue.sendTask(cmd);
-                                System.out.println("[小车] 指令已发送: " + cmd);
-
-
-                            }
-                        } catch (Exception e) {
-                            System.err.println("[小车" + carIndex + "] 处理异常: " + e.getMessage());
-                        }
-                    });
+                // 2. 直接发送最新任务（只进入小车发送通道，不等待Broker，无需再用线程池并行）
+                String cmd = TickKeys.carCommand(i);
+                try {
+                    if (dispatch(carAcks, carQueue, TickRecorder.CAR, i, cmd) && VERBOSE) {
+                        System.out.println("[小车] 指令已发送: " + cmd);
+                    }
+                } catch (Exception e) {
+                    System.err.println("[小车" + i + "] 处理异常: " + e.getMessage());
                 }
-
-                carExecutor.shutdown();
-                carExecutor.awaitTermination(1, TimeUnit.SECONDS);
             }
         } catch (Exception e) {
             System.err.println("[小车控制] 系统错误: " + e.getMessage());
         }
     }
+    /**
+     * 导航指令 "Car00i"，有目标时附带分配给该车的未点亮目标格子 "Car00i:x,y"
+     * （目标与上次相同时复用上次拼接的指令，只在检测线程中调用）
+     */
+    private String naviCommand(int carIndex, String target) {
+        if (target == null) {
+            return TickKeys.naviCommand(carIndex);
+        }
+        if (naviCommandTargets.length <= carIndex) {
+            naviCommandTargets = Arrays.copyOf(naviCommandTargets, carIndex + 1);
+            naviCommandsWithTarget = Arrays.copyOf(naviCommandsWithTarget, carIndex + 1);
+        }
+        if (!target.equals(naviCommandTargets[carIndex])) {
+            naviCommandTargets[carIndex] = target;
+            naviCommandsWithTarget[carIndex] = TickKeys.naviCommand(carIndex) + ":" + target;
+        }
+        return naviCommandsWithTarget[carIndex];
+    }
+
     /**
      * 发送导航指令
      */
-    private void sendNaviCommand() {
+    private void sendNaviCommand(ControlSnapshot state) {
         try {
 
-            NaviNumber=Integer.parseInt(RedisConnector.get("IsNaviOpen"));
-            String CarNumberString=RedisConnector.get("CarNumber");
-            if (CarNumberString==null) {
-                CarNumber=0;
-            }
-          else
-              CarNumber=Integer.parseInt(RedisConnector.get("CarNumber"));
-            for(int i=1;i<=CarNumber;i++) {
-                List<String> list= RedisConnector.lrAll("Car00"+i+"TaskList");
-                if (list==null||list.isEmpty()) {
-                String cmd="Car00"+i;
-                    naviQueue.sendTask(cmd);
-                    lastNaViFinish = IsNaViFinish;// 更新旧值记录
-                    System.out.println("[导航器] 指令已发送: " + cmd);
+            NaviNumber=Integer.parseInt(state.isNaviOpen);
+            boolean dispatched = false;
+            boolean failed = false;
+            for(int i=1;i<=state.carNumber;i++) {
+                if (!ownsCar(i)) {
+                    continue; // 由其他节点负责
                 }
+                if (!state.hasTasks(i)) {
+                String cmd = naviCommand(i, state.naviTarget(i));
+                    try {
+                        if (dispatch(naviAcks, naviQueue, TickRecorder.NAVI, i, cmd) && VERBOSE) {
+                            System.out.println("[导航器] 指令已发送: " + cmd);
+                        }
+                        dispatched = true; // 未发送时相同指令仍在等待确认，同样视为已派发
+                    } catch (Exception e) {
+                        failed = true;
+                        System.err.println("[导航器" + i + "] 发送失败: " + e.getMessage());
+                    }
+                }
+            }
+            if (dispatched && !failed) {
+                lastNaViFinish = IsNaViFinish;// 全部空闲车都已派发后才更新旧值记录，失败时下个周期重发
             }
         } catch (Exception e) {
             System.err.println("[导航器] 发送失败: " + e.getMessage());
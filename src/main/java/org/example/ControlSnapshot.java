@@ -0,0 +1,86 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * 一次检测周期从 Redis 读取到的系统状态快照
+ * Redis 不可用时 Control 以最近一次成功读取的快照（last-known-good）降级运行
+ * 检测线程交替复用两个快照（不覆盖 last-known-good），稳态下不为快照和任务数组分配对象
+ */
+public class ControlSnapshot {
+    String isCarOpen;// 小车开关
+    String isNaviOpen;// 导航开关
+    String isViewOpen;// 显示器开关
+    String isNaviFinish;// 导航状态值
+    int carNumber;// 小车数量
+    long mapCells;// 地图格子数（mapWidth * mapLength，未设置时为-1）
+    long mapLit;// 已点亮格子数
+    boolean[] carHasTasks;// 下标为小车编号，任务列表是否非空
+    String[] naviTargets;// 下标为小车编号，前沿索引给出的导航目标 "x,y"（未启用时为null）
+    long readAt;// 读取时间（毫秒）
+
+    public ControlSnapshot(String isCarOpen, String isNaviOpen, String isViewOpen, String isNaviFinish,
+                           int carNumber, long mapCells, long mapLit, boolean[] carHasTasks, String[] naviTargets, long readAt) {
+        this.isCarOpen = isCarOpen;
+        this.isNaviOpen = isNaviOpen;
+        this.isViewOpen = isViewOpen;
+        this.isNaviFinish = isNaviFinish;
+        this.carNumber = carNumber;
+        this.mapCells = mapCells;
+        this.mapLit = mapLit;
+        this.carHasTasks = carHasTasks;
+        this.naviTargets = naviTargets;
+        this.readAt = readAt;
+    }
+
+    /**
+     * 空快照（由检测线程通过 taskBuffer / fill 复用）
+     */
+    ControlSnapshot() {
+        this.carHasTasks = new boolean[1];
+        this.mapCells = -1;
+    }
+
+    /**
+     * 复用的任务数组：小车数量增加时扩容，返回前清零
+     */
+    boolean[] taskBuffer(int carNumber) {
+        if (carHasTasks.length <= carNumber) {
+            carHasTasks = new boolean[carNumber + 1];
+        } else {
+            Arrays.fill(carHasTasks, false);
+        }
+        return carHasTasks;
+    }
+
+    /**
+     * 填入本周期读取到的状态（任务数组已通过 taskBuffer 填好）
+     */
+    void fill(String isCarOpen, String isNaviOpen, String isViewOpen, String isNaviFinish,
+              int carNumber, long mapCells, long mapLit, String[] naviTargets, long readAt) {
+        this.isCarOpen = isCarOpen;
+        this.isNaviOpen = isNaviOpen;
+        this.isViewOpen = isViewOpen;
+        this.isNaviFinish = isNaviFinish;
+        this.carNumber = carNumber;
+        this.mapCells = mapCells;
+        this.mapLit = mapLit;
+        this.naviTargets = naviTargets;
+        this.readAt = readAt;
+    }
+
+    /** 小车任务列表是否非空 */
+    public boolean hasTasks(int carIndex) {
+        return carIndex > 0 && carIndex < carHasTasks.length && carHasTasks[carIndex];
+    }
+
+    /** 小车的导航目标（未启用前沿索引或无未点亮格子时为null） */
+    public String naviTarget(int carIndex) {
+        return naviTargets != null && carIndex > 0 && carIndex < naviTargets.length ? naviTargets[carIndex] : null;
+    }
+
+    /** 快照距今时长（毫秒） */
+    public long ageMillis() {
+        return System.currentTimeMillis() - readAt;
+    }
+}
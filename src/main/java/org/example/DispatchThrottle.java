@@ -0,0 +1,158 @@
+package org.example;
+
+import javax.jms.JMSException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 Broker 队列深度限流的发送目标
+ * 功能：队列积压达到高水位（或积压时没有消费者）后暂停派发，相同指令只保留一条待发；
+ * 积压回落到低水位且有消费者时按顺序补发。由 Control 主动合并负载，而不是等 Broker 流控阻塞检测线程
+ * 统计过期或未知时不限流
+ * 补发只在调用方线程（检测线程）中进行：统计更新线程只更新限流状态，不持锁发送
+ */
+public class DispatchThrottle implements TaskSink, BrokerQueueMonitor.Listener {
+    private final String name;
+    private final TaskSink delegate;
+    private final BrokerQueueMonitor monitor;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final Map<String, Object> pending = new LinkedHashMap<>();// 限流期间待发的指令（按内容合并）
+    private boolean throttled = false;
+
+    // 监控指标
+    private long throttleCount = 0;// 进入限流的次数
+    private long deferredCount = 0;// 限流期间暂缓的指令数
+    private long coalescedCount = 0;// 被合并掉的重复指令数
+
+    /**
+     * @param name          队列名（用于日志）
+     * @param delegate      实际发送目标
+     * @param monitor       队列监控
+     * @param highWatermark 积压达到该值时开始限流
+     * @param lowWatermark  积压回落到该值以下时恢复派发
+     */
+    public DispatchThrottle(String name, TaskSink delegate, BrokerQueueMonitor monitor,
+                            long highWatermark, long lowWatermark) {
+        this.name = name;
+        this.delegate = delegate;
+        this.monitor = monitor;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        monitor.addListener(this);
+    }
+
+    @Override
+    public synchronized <T> void sendTask(T task) throws JMSException {
+        evaluate();
+        if (!throttled) {
+            // 刚恢复派发时先按序补发待发指令，避免新指令越过旧指令（相同指令只保留最新一条）
+            if (!pending.isEmpty() && pending.remove(String.valueOf(task)) != null) {
+                coalescedCount++;
+            }
+            flush();
+            delegate.sendTask(task);
+            return;
+        }
+        // 限流期间相同指令只保留最新一条（移到队尾）
+        deferredCount++;
+        if (pending.remove(String.valueOf(task)) != null) {
+            coalescedCount++;
+        }
+        pending.put(String.valueOf(task), task);
+    }
+
+    /**
+     * 统计更新：只更新限流状态，待发指令由检测线程在下一个周期补发
+     */
+    @Override
+    public synchronized void onUpdate(BrokerQueueMonitor monitor) {
+        evaluate();
+    }
+
+    /**
+     * 已恢复派发时补发待发指令（检测线程每个周期调用，本周期没有新指令时积压也能及时补发）
+     */
+    public synchronized void flushIfResumed() {
+        evaluate();
+        if (!throttled) {
+            flush();
+        }
+    }
+
+    /**
+     * 按高低水位（滞回）更新限流状态
+     */
+    private void evaluate() {
+        boolean wasThrottled = throttled;
+        if (!monitor.isFresh()) {
+            throttled = false;
+        } else {
+            long depth = monitor.getDepth();
+            boolean noConsumer = monitor.getConsumerCount() == 0;
+            if (throttled) {
+                throttled = depth > lowWatermark || noConsumer;
+            } else {
+                throttled = depth >= highWatermark || (noConsumer && depth >= lowWatermark);
+            }
+        }
+        if (throttled && !wasThrottled) {
+            throttleCount++;
+            System.err.println("[限流] " + name + " 积压 " + monitor.getDepth() + "，消费者 "
+                    + monitor.getConsumerCount() + "，暂停派发");
+        } else if (!throttled && wasThrottled) {
+            System.out.println("[限流] " + name + " 积压 " + monitor.getDepth() + "，恢复派发，补发 "
+                    + pending.size() + " 条");
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Object> tasks = new ArrayList<>(pending.values());
+        pending.clear();
+        for (Object task : tasks) {
+            try {
+                delegate.sendTask(task);
+            } catch (JMSException e) {
+                System.err.println("[限流] " + name + " 补发失败: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized boolean isThrottled() {
+        return throttled;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    public synchronized long getDeferredCount() {
+        return deferredCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * 关闭前补发全部待发指令（由发送通道/发件箱保证送达）
+     */
+    @Override
+    public synchronized void close() throws JMSException {
+        flush();
+        delegate.close();
+    }
+}
@@ -0,0 +1,361 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.BitPosParams;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 地图未点亮格子的前沿索引
+ * 功能：把地图位图按固定大小划分区域，在哈希 &lt;地图键&gt;:frontier 中保存每个区域的未点亮格子数，
+ * 由 RedisConnector.setBit 通过 Lua 脚本原子地增量维护；读取时只比较地图版本号（脚本写入时递增），
+ * 版本号不变时使用本地缓存的计数；绕过脚本的写入（如小车直接 SETBIT）不改变版本号，
+ * 由每 CHECK_INTERVAL 一次的点亮格子总数核对（或 BITPOS 发现计数与位图不符时提前核对）发现，发现后分段重建；
+ * 导航时先按区域计数挑出有未点亮格子的区域，再用 BITPOS 在区域内定位第一个未点亮格子，无需下载整张位图
+ *
+ * 格子编号按行优先：offset = y * mapWidth + x
+ */
+public class FrontierIndex {
+    static final int REGION_CELLS = 1024;                // 每个区域的格子数（8的倍数，按字节对齐）
+    private static final int REGION_BYTES = REGION_CELLS / 8;
+    private static final int REBUILD_CHUNK = 64;         // 每次重建脚本处理的区域数，避免长时间阻塞 Redis
+    private static final String CELLS_FIELD = "cells";  // 索引对应的地图格子数
+    private static final String BUILT_FIELD = "built";  // 重建进行中时已重建的区域数（重建完成后删除）
+    private static final long REBUILD_LEASE_MS = 10_000; // 重建租约时长，每段续期，持有者崩溃后由其他节点接手
+    private static final long CHECK_INTERVAL = Long.getLong("control.frontier.checkIntervalMs", 5000); // 全图核对间隔（毫秒）
+
+    // 统计位图 [from, to) 内为1的位数（from 按字节对齐，末尾不足一字节的部分用 BITFIELD 逐位统计）
+    private static final String LIT_FUNCTION =
+            "local function lit(key, from, to) " +
+            "  local full = math.floor((to - from) / 8) " +
+            "  local n = 0 " +
+            "  if full > 0 then n = redis.call('bitcount', key, from / 8, from / 8 + full - 1) end " +
+            "  local rest = to - from - full * 8 " +
+            "  if rest > 0 then " +
+            "    local v = redis.call('bitfield', key, 'GET', 'u' .. rest, from + full * 8)[1] " +
+            "    while v > 0 do n = n + v % 2 v = math.floor(v / 2) end " +
+            "  end " +
+            "  return n " +
+            "end ";
+    // 设置位；值变化时递增地图版本号并把所在副本块记入变更日志（KEYS[3]/KEYS[4]，供 MapReplica 增量同步），
+    // 同时更新所在区域的未点亮计数（索引未建立、越界或所在区域尚未被进行中的重建统计时不更新，该区域稍后由重建统计）
+    static final String SETBIT_SCRIPT =
+            "local old = redis.call('setbit', KEYS[1], ARGV[1], ARGV[2]) " +
+            "if old ~= tonumber(ARGV[2]) then " +
+            "  local version = redis.call('incr', KEYS[3]) " +
+            "  redis.call('zadd', KEYS[4], version, math.floor(tonumber(ARGV[1]) / tonumber(ARGV[4]))) " +
+            "end " +
+            "local fields = redis.call('hmget', KEYS[2], '" + CELLS_FIELD + "', '" + BUILT_FIELD + "') " +
+            "local cells = tonumber(fields[1]) " +
+            "local offset = tonumber(ARGV[1]) " +
+            "local region = math.floor(offset / tonumber(ARGV[3])) " +
+            "if cells and offset < cells and old ~= tonumber(ARGV[2]) " +
+            "    and (not fields[2] or region < tonumber(fields[2])) then " +
+            "  redis.call('hincrby', KEYS[2], tostring(region), old - tonumber(ARGV[2])) " +
+            "end " +
+            "return old";
+    // 开始重建：取得重建租约（已有节点在重建时返回-1），清空索引并记录进度为0
+    private static final String REBUILD_START_SCRIPT =
+            "if not redis.call('set', KEYS[2], '1', 'NX', 'PX', ARGV[2]) then return -1 end " +
+            "redis.call('del', KEYS[1]) " +
+            "redis.call('hset', KEYS[1], '" + CELLS_FIELD + "', ARGV[1], '" + BUILT_FIELD + "', 0) " +
+            "return 0";
+    // 重建区域 [ARGV[3], ARGV[4])，每段在服务端原子执行并续期租约；进度与预期不符（租约过期后其他节点重新开始了重建）
+    // 时返回-1放弃，最后一段完成后删除进度字段与租约，索引即告完整
+    private static final String REBUILD_CHUNK_SCRIPT =
+            LIT_FUNCTION +
+            "local fields = redis.call('hmget', KEYS[2], '" + CELLS_FIELD + "', '" + BUILT_FIELD + "') " +
+            "if fields[1] ~= ARGV[1] or fields[2] ~= ARGV[3] then return -1 end " +
+            "redis.call('pexpire', KEYS[3], ARGV[5]) " +
+            "local cells = tonumber(ARGV[1]) " +
+            "local size = tonumber(ARGV[2]) " +
+            "local to = tonumber(ARGV[4]) " +
+            "for region = tonumber(ARGV[3]), to - 1 do " +
+            "  local from = region * size " +
+            "  local stop = math.min(from + size, cells) " +
+            "  redis.call('hset', KEYS[2], tostring(region), stop - from - lit(KEYS[1], from, stop)) " +
+            "end " +
+            "if to * size >= cells then " +
+            "  redis.call('hdel', KEYS[2], '" + BUILT_FIELD + "') " +
+            "  redis.call('del', KEYS[3]) " +
+            "else " +
+            "  redis.call('hset', KEYS[2], '" + BUILT_FIELD + "', ARGV[4]) " +
+            "end " +
+            "return to";
+    // 原子读取地图内点亮格子数、地图版本号与索引内容，用于发现绕过索引脚本的写入（如小车直接 SETBIT）
+    // 全图 BITCOUNT 代价与地图大小成正比，只按 CHECK_INTERVAL 定期执行
+    private static final String STATE_SCRIPT =
+            LIT_FUNCTION +
+            "return {lit(KEYS[1], 0, tonumber(ARGV[1])), redis.call('get', KEYS[3]) or '0', redis.call('hgetall', KEYS[2])}";
+
+    private final String mapKey;
+    private final String indexKey;
+    private final String leaseKey;
+    private final String versionKey;
+    private final int width;
+    private final long cellCount;
+    private final int regionCount;
+    private final long[] unlit;// 缓存的各区域未点亮计数（只在检测线程中使用）
+    private long cachedVersion = -1;// 缓存计数对应的地图版本号（-1 表示无缓存）
+    private long nextCheckAt = 0;// 下一次全图核对时间（毫秒）
+    // targets() 复用的缓冲区（只在检测线程中使用，小车数量增加时扩容）
+    private final String[][] targetBuffers = {new String[1], new String[1]};// 交替返回，上一周期快照中的目标不被覆盖
+    private int targetBuffer = 0;
+    private final boolean[] taken;// 下标为区域编号，是否已分配给某辆车
+    private int[] regions = new int[1];// 下标为小车编号，分配的区域（-1 表示不需要目标）
+    @SuppressWarnings("unchecked")
+    private Response<Long>[] positions = new Response[1];// 下标为小车编号，区域内第一个未点亮格子
+    private long[] targetOffsets = new long[1];// 下标为小车编号，上次目标格子的编号
+    private String[] targetNames = new String[1];// 下标为小车编号，上次目标格子的坐标字符串
+
+    /**
+     * @param mapKey 地图位图键名
+     * @param width  地图宽度（mapWidth）
+     * @param length 地图长度（mapLength）
+     */
+    public FrontierIndex(String mapKey, int width, int length) {
+        this.mapKey = mapKey;
+        this.indexKey = indexKey(mapKey);
+        this.leaseKey = indexKey + ":rebuilding";
+        this.versionKey = MapReplica.versionKey(mapKey);
+        this.width = width;
+        this.cellCount = (long) width * length;
+        this.regionCount = (int) ((cellCount + REGION_CELLS - 1) / REGION_CELLS);
+        this.unlit = new long[regionCount];
+        this.taken = new boolean[regionCount];
+    }
+
+    /** 地图键对应的索引键 */
+    static String indexKey(String mapKey) {
+        return mapKey + ":frontier";
+    }
+
+    /** 索引是否对应给定尺寸的地图 */
+    public boolean matches(int width, int length) {
+        return this.width == width && cellCount == (long) width * length;
+    }
+
+    /**
+     * 重建索引（地图尺寸变化、索引丢失或检测到漂移时）
+     * 按 REBUILD_CHUNK 个区域分段执行，段与段之间 Redis 可以处理其他命令；
+     * 重建期间 setBit 只维护已统计区域的计数，未统计区域的写入由后续分段统计到
+     */
+    public void rebuild() {
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            rebuild(jedis);
+        }
+    }
+
+    private void rebuild(Jedis jedis) {
+        cachedVersion = -1; // 重建后重新读取计数
+        List<String> keys = Arrays.asList(mapKey, indexKey, leaseKey);
+        String cells = String.valueOf(cellCount);
+        String lease = String.valueOf(REBUILD_LEASE_MS);
+        Object started = RedisConnector.evalCached(jedis, REBUILD_START_SCRIPT, Arrays.asList(indexKey, leaseKey),
+                Arrays.asList(cells, lease));
+        if (Long.valueOf(-1).equals(started)) {
+            return; // 其他节点正在重建
+        }
+        for (int from = 0; from < regionCount; from += REBUILD_CHUNK) {
+            int to = Math.min(from + REBUILD_CHUNK, regionCount);
+            Object done = RedisConnector.evalCached(jedis, REBUILD_CHUNK_SCRIPT, keys, Arrays.asList(cells,
+                    String.valueOf(REGION_CELLS), String.valueOf(from), String.valueOf(to), lease));
+            if (Long.valueOf(-1).equals(done)) {
+                System.out.println("[前沿索引] 重建已由其他节点接手");
+                return;
+            }
+        }
+        System.out.println("[前沿索引] 已重建: " + regionCount + " 个区域");
+    }
+
+    /**
+     * 读取各区域未点亮计数：到了核对时间时原子地核对点亮格子总数，否则只读取地图版本号，
+     * 版本号未变时直接返回缓存
+     * @return 下标为区域编号的未点亮计数；索引不完整、尺寸不符或计数之和与地图不一致时返回null
+     */
+    private long[] readCounts(Jedis jedis) {
+        long now = System.currentTimeMillis();
+        if (now >= nextCheckAt) {
+            nextCheckAt = now + CHECK_INTERVAL;
+            return verifyCounts(jedis);
+        }
+        String raw = jedis.get(versionKey);
+        long version = raw == null ? 0 : Long.parseLong(raw);
+        if (version == cachedVersion) {
+            return unlit;
+        }
+        // 先读版本号再读索引，读到的计数不会比版本号旧（中间有写入时下个周期版本号不同，再读一次）
+        return loadCounts(jedis.hgetAll(indexKey), version) < 0 ? null : unlit;
+    }
+
+    /**
+     * 原子读取点亮格子数、版本号与索引内容，核对计数之和（发现绕过索引脚本的写入）
+     */
+    private long[] verifyCounts(Jedis jedis) {
+        List<?> state = (List<?>) RedisConnector.evalCached(jedis, STATE_SCRIPT,
+                Arrays.asList(mapKey, indexKey, versionKey), Collections.singletonList(String.valueOf(cellCount)));
+        long lit = (Long) state.get(0);
+        long version = Long.parseLong((String) state.get(1));
+        List<?> fields = (List<?>) state.get(2);
+        Map<String, String> counts = new HashMap<>();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            counts.put((String) fields.get(i), (String) fields.get(i + 1));
+        }
+        long total = loadCounts(counts, version);
+        if (total < 0) {
+            return null;
+        }
+        if (total != cellCount - lit) {
+            cachedVersion = -1;
+            System.out.println("[前沿索引] 检测到绕过索引的写入（索引未点亮 " + total
+                    + "，地图未点亮 " + (cellCount - lit) + "）");
+            return null;
+        }
+        return unlit;
+    }
+
+    /**
+     * 把索引内容解析到缓存并记录对应的版本号
+     * @return 未点亮计数之和；索引不完整或尺寸不符时返回-1（缓存失效）
+     */
+    private long loadCounts(Map<String, String> counts, long version) {
+        if (!String.valueOf(cellCount).equals(counts.get(CELLS_FIELD)) || counts.containsKey(BUILT_FIELD)) {
+            cachedVersion = -1;
+            return -1;
+        }
+        long total = 0;
+        for (int region = 0; region < regionCount; region++) {
+            String count = counts.get(String.valueOf(region));
+            unlit[region] = count == null ? 0 : Long.parseLong(count);
+            total += unlit[region];
+        }
+        cachedVersion = version;
+        return total;
+    }
+
+    /**
+     * 为空闲小车挑选导航目标：每辆车从地图上均匀分布的起始区域向后查找有未点亮格子的区域，
+     * 尽量不与其他车重复，再用 BITPOS 定位区域内第一个未点亮格子
+     * @param carNumber 小车数量
+     * @param wanted    下标为小车编号，是否需要目标
+     * @return 下标为小车编号的目标坐标 "x,y"，无未点亮格子或不需要时为null
+     *         （数组由索引复用，长度可能大于 carNumber + 1，下下次调用时被覆盖）
+     */
+    public String[] targets(int carNumber, boolean[] wanted) {
+        String[] targets = buffers(carNumber);
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            // 1. 读取各区域未点亮计数（版本号未变时用缓存；索引缺失、尺寸不符或核对不一致时重建）
+            long[] unlit = readCounts(jedis);
+            if (unlit == null) {
+                rebuild(jedis);
+                unlit = readCounts(jedis);
+                if (unlit == null) {
+                    return targets; // 重建期间地图仍在变化或由其他节点重建中，下个周期再分配
+                }
+            }
+
+            // 2. 为每辆车分配区域
+            Arrays.fill(regions, -1);
+            Arrays.fill(taken, false);
+            for (int i = 1; i <= carNumber; i++) {
+                if (i < wanted.length && wanted[i]) {
+                    regions[i] = pickRegion(unlit, taken, (int) ((long) (i - 1) * regionCount / carNumber));
+                }
+            }
+
+            // 3. 一次管道在各区域内定位第一个未点亮格子
+            Pipeline pipeline = jedis.pipelined();
+            Response<Long> length = pipeline.strlen(mapKey);
+            Arrays.fill(positions, null);
+            for (int i = 1; i <= carNumber; i++) {
+                if (regions[i] >= 0) {
+                    long start = (long) regions[i] * REGION_BYTES;
+                    positions[i] = pipeline.bitpos(mapKey, false, new BitPosParams(start, start + REGION_BYTES - 1));
+                }
+            }
+            pipeline.sync();
+
+            for (int i = 1; i <= carNumber; i++) {
+                Response<Long> position = positions[i];
+                if (position == null) {
+                    continue;
+                }
+                positions[i] = null; // 不持有上一周期的响应
+                long offset = position.get();
+                if (offset < 0) {
+                    if (length.get() * 8 >= (long) (regions[i] + 1) * REGION_CELLS) {
+                        // 计数显示有未点亮格子，位图中整个区域却已点亮：有绕过脚本的写入，下个周期提前核对
+                        nextCheckAt = 0;
+                        continue;
+                    }
+                    // 区域超出位图字符串末尾时 BITPOS 找不到，末尾之后的格子都未点亮
+                    offset = Math.max((long) regions[i] * REGION_CELLS, length.get() * 8);
+                }
+                if (offset < cellCount) {
+                    targets[i] = target(i, offset);
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 准备本次调用的缓冲区：交替使用两个目标数组并清空，小车数量增加时扩容
+     */
+    @SuppressWarnings("unchecked")
+    private String[] buffers(int carNumber) {
+        if (regions.length <= carNumber) {
+            regions = new int[carNumber + 1];
+            positions = new Response[carNumber + 1];
+            targetOffsets = Arrays.copyOf(targetOffsets, carNumber + 1);
+            targetNames = Arrays.copyOf(targetNames, carNumber + 1);
+        }
+        targetBuffer ^= 1;
+        String[] targets = targetBuffers[targetBuffer];
+        if (targets.length <= carNumber) {
+            targets = new String[carNumber + 1];
+            targetBuffers[targetBuffer] = targets;
+        } else {
+            Arrays.fill(targets, null);
+        }
+        return targets;
+    }
+
+    /**
+     * 目标格子的坐标 "x,y"（与该车上次的目标相同时复用上次的字符串）
+     */
+    private String target(int carIndex, long offset) {
+        if (targetNames[carIndex] == null || targetOffsets[carIndex] != offset) {
+            targetOffsets[carIndex] = offset;
+            targetNames[carIndex] = (offset % width) + "," + (offset / width);
+        }
+        return targetNames[carIndex];
+    }
+
+    /**
+     * 从起始区域循环向后查找有未点亮格子的区域，优先选择尚未分配给其他车的区域
+     */
+    private int pickRegion(long[] unlit, boolean[] taken, int from) {
+        int shared = -1;
+        for (int step = 0; step < regionCount; step++) {
+            int region = (from + step) % regionCount;
+            if (unlit[region] <= 0) {
+                continue;
+            }
+            if (!taken[region]) {
+                taken[region] = true;
+                return region;
+            }
+            if (shared < 0) {
+                shared = region;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 时间轮定时器（Hashed Wheel Timer）
+ * 功能：大量短期超时（每条指令一个）以 O(1) 加入和取消，由单个工作线程按刻度推进时间轮并执行到期任务；
+ * 超时精度为一个刻度，适合“等待确认，超时重发”这类不要求精确时间的场景
+ */
+public class HashedWheelTimer {
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /** 定时任务句柄 */
+    public interface Timeout {
+        /** 取消任务，已到期或已取消时返回false */
+        boolean cancel();
+
+        boolean isExpired();
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Entry>[] wheel;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();// 新加入、尚未放入时间轮的任务
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick = 0;// 已推进的刻度数（仅工作线程访问）
+
+    /**
+     * @param name       工作线程名
+     * @param tick       刻度时长
+     * @param unit       刻度时间单位
+     * @param wheelSize  时间轮槽数（向上取整为2的幂）
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = unit.toNanos(tick);
+        this.mask = size - 1;
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 添加定时任务（任务在工作线程中执行，应尽快返回）
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Entry entry = new Entry(task, System.nanoTime() + unit.toNanos(delay));
+        pending.add(entry);
+        return entry;
+    }
+
+    private void run() {
+        while (running) {
+            // 1. 等到下一个刻度
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            // 2. 新任务放入对应的槽
+            transferPending();
+            // 3. 执行当前槽中本轮到期的任务
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            if (entry.state.get() == CANCELLED) {
+                continue;
+            }
+            long calculated = Math.max(0, (entry.deadline - startTime) / tickNanos);
+            long ticks = Math.max(calculated, tick); // 已过期的任务放入当前槽立即执行
+            entry.remainingRounds = (calculated - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(entry);
+        }
+    }
+
+    private void expire(List<Entry> bucket) {
+        Iterator<Entry> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.state.get() == CANCELLED) {
+                iterator.remove();
+            } else if (entry.remainingRounds <= 0) {
+                iterator.remove();
+                if (entry.state.compareAndSet(INIT, EXPIRED)) {
+                    try {
+                        entry.task.run();
+                    } catch (Exception e) {
+                        System.err.println("[定时器] 任务执行异常: " + e.getMessage());
+                    }
+                }
+            } else {
+                entry.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * 停止定时器，未到期的任务不再执行
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Entry implements Timeout {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long remainingRounds;// 还需转过的圈数（仅工作线程访问）
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            return state.compareAndSet(INIT, CANCELLED);
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.example;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.pool.PooledConnectionFactory;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ActiveMQ 共享连接管理工具类
+ * 功能：每个 Broker 地址只建立一条物理连接（池化连接工厂），会话按需从池中借出；
+ * 非 failover: 地址自动包装为 failover 传输，Broker 重启后自动重连
+ */
+public class JmsConnectionManager {
+    private static final int MAX_CONNECTIONS = 1;                 // 每个Broker的物理连接数
+    private static final int MAX_SESSIONS = 32;                   // 每条连接最大活跃会话数
+    private static final long SESSION_BORROW_TIMEOUT = 3000;      // 会话池满时最长等待（毫秒）
+    private static final int SEND_TIMEOUT = 1000;                 // 发送窗口满或断线时最长阻塞（毫秒）
+    private static final int PRODUCER_WINDOW_SIZE = 1024 * 1024;  // 异步发送未获Broker确认的字节数上限
+    // failover 参数：快速重连、指数退避；trackMessages 记录已异步发出但未确认的消息，重连后自动重发；
+    // 断线时发送最多阻塞 timeout 毫秒（超时后抛异常，由发件箱接管）
+    private static final String FAILOVER_OPTIONS =
+            "initialReconnectDelay=100&maxReconnectDelay=2000&useExponentialBackOff=true"
+                    + "&trackMessages=true&maxCacheSize=" + (4 * PRODUCER_WINDOW_SIZE) + "&timeout=" + SEND_TIMEOUT;
+
+    private static final Map<String, PooledConnectionFactory> factories = new ConcurrentHashMap<>();
+
+    private JmsConnectionManager() {
+    }
+
+    /**
+     * 将普通地址包装为 failover 地址（已是 failover: 的地址原样返回）
+     */
+    public static String failoverUrl(String brokerUrl) {
+        if (brokerUrl.startsWith("failover:")) {
+            return brokerUrl;
+        }
+        return "failover:(" + brokerUrl + ")?" + FAILOVER_OPTIONS;
+    }
+
+    /**
+     * 获取共享连接（池化连接的句柄，close() 只归还不断开）
+     * @param brokerUrl ActiveMQ服务器地址
+     */
+    public static Connection createConnection(String brokerUrl) throws JMSException {
+        Connection connection = factories.computeIfAbsent(brokerUrl, JmsConnectionManager::createFactory)
+                .createConnection();
+        connection.setExceptionListener(e ->
+                System.err.println("[ActiveMQ] 连接异常（failover 将自动重连）: " + e.getMessage()));
+        connection.start();
+        return connection;
+    }
+
+    private static PooledConnectionFactory createFactory(String brokerUrl) {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(failoverUrl(brokerUrl));
+        // 异步发送 + 生产者窗口：连接正常时不等待Broker回执，窗口满（Broker变慢）时最多阻塞 SEND_TIMEOUT 后抛异常，
+        // 消息转存发件箱；已发出未确认的消息在重连后由 failover 重发，重复的由消费者按去重ID丢弃
+        factory.setUseAsyncSend(true);
+        factory.setProducerWindowSize(PRODUCER_WINDOW_SIZE);
+        factory.setSendTimeout(SEND_TIMEOUT);
+
+        PooledConnectionFactory pooled = new PooledConnectionFactory();
+        pooled.setConnectionFactory(factory);
+        pooled.setMaxConnections(MAX_CONNECTIONS);
+        pooled.setMaximumActiveSessionPerConnection(MAX_SESSIONS);
+        pooled.setBlockIfSessionPoolIsFull(true);
+        pooled.setBlockIfSessionPoolIsFullTimeout(SESSION_BORROW_TIMEOUT);
+        pooled.start();
+        System.out.println("[ActiveMQ] 共享连接池已创建: " + failoverUrl(brokerUrl));
+        return pooled;
+    }
+
+    /**
+     * 关闭所有连接池（应用退出时调用）
+     */
+    public static void shutdown() {
+        for (PooledConnectionFactory factory : factories.values()) {
+            factory.stop();
+        }
+        factories.clear();
+    }
+}
@@ -0,0 +1,181 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 键空间通知订阅工具类
+ * 功能：订阅指定键的变更通知（__keyspace@0__:key），键被修改或订阅重建时回调监听器
+ * 依赖服务端开启 notify-keyspace-events（至少包含 K、g、$），本类只检查不修改服务端配置
+ */
+public class KeyspaceNotifier {
+    private static final String CHANNEL_PREFIX = "__keyspace@0__:";
+    private static final String REQUIRED_EVENTS = "Kg$";
+    private static final int RESUBSCRIBE_INTERVAL = 2000; // 订阅断开后重试间隔（毫秒）
+
+    private static final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
+    private static final Set<String> requested = new HashSet<>(); // 当前连接已请求订阅的键（受类锁保护）
+    private static volatile JedisPubSub pubSub;
+    private static Thread subscriberThread;
+
+    private KeyspaceNotifier() {
+    }
+
+    /**
+     * 注册键变更监听器
+     * @param key      键名
+     * @param listener 变更回调（在订阅线程中执行，需快速返回）
+     */
+    public static synchronized void register(String key, Runnable listener) {
+        boolean newKey = !listeners.containsKey(key);
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+        if (subscriberThread == null) {
+            startSubscriber();
+        } else if (newKey && pubSub != null && pubSub.isSubscribed() && requested.add(key)) {
+            pubSub.subscribe(CHANNEL_PREFIX + key);
+        }
+        // 订阅线程仍在连接时由 onSubscribe 中的 catchUp 补订
+    }
+
+    /**
+     * 移除键变更监听器（键上已无监听器时退订该键）
+     */
+    public static synchronized void unregister(String key, Runnable listener) {
+        List<Runnable> keyListeners = listeners.get(key);
+        if (keyListeners == null || !keyListeners.remove(listener) || !keyListeners.isEmpty()) {
+            return;
+        }
+        listeners.remove(key);
+        if (pubSub != null && pubSub.isSubscribed() && requested.remove(key)) {
+            pubSub.unsubscribe(CHANNEL_PREFIX + key);
+        }
+    }
+
+    private static void startSubscriber() {
+        checkNotifications();
+        subscriberThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (listeners.isEmpty()) {
+                    sleepQuietly(); // 所有键都已退订，等待新的注册
+                    continue;
+                }
+                try (Jedis jedis = RedisConnector.getConnection()) {
+                    pubSub = new JedisPubSub() {
+                        @Override
+                        public void onMessage(String channel, String message) {
+                            fire(channel.substring(CHANNEL_PREFIX.length()));
+                        }
+
+                        @Override
+                        public void onSubscribe(String channel, int subscribedChannels) {
+                            catchUp(this);
+                            // 订阅（重新）建立期间可能丢失通知，统一视为已变更
+                            fire(channel.substring(CHANNEL_PREFIX.length()));
+                        }
+                    };
+                    String[] channels;
+                    synchronized (KeyspaceNotifier.class) {
+                        requested.clear();
+                        requested.addAll(listeners.keySet());
+                        channels = requested.stream()
+                                .map(key -> CHANNEL_PREFIX + key)
+                                .toArray(String[]::new);
+                    }
+                    jedis.subscribe(pubSub, channels); // 阻塞直到取消订阅或连接断开
+                } catch (Exception e) {
+                    System.err.println("[键空间通知] 订阅中断: " + e.getMessage());
+                }
+                sleepQuietly();
+            }
+        }, "redis-keyspace-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    /**
+     * 订阅建立后补订连接期间新注册的键、退订连接期间已移除的键
+     * （连接期间 isSubscribed 为 false，register/unregister 无法直接修改订阅）
+     */
+    private static synchronized void catchUp(JedisPubSub current) {
+        if (current != pubSub) {
+            return;
+        }
+        for (String key : listeners.keySet()) {
+            if (requested.add(key)) {
+                current.subscribe(CHANNEL_PREFIX + key);
+            }
+        }
+        requested.removeIf(key -> {
+            if (listeners.containsKey(key)) {
+                return false;
+            }
+            current.unsubscribe(CHANNEL_PREFIX + key);
+            return true;
+        });
+    }
+
+    private static void sleepQuietly() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(RESUBSCRIBE_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 检查服务端是否开启了所需的键空间通知（不修改共享服务端的配置）；
+     * 未开启时打印配置方法，订阅照常建立，使用方依靠各自的兜底同步
+     */
+    private static void checkNotifications() {
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            List<String> config = jedis.configGet("notify-keyspace-events");
+            String current = config.size() > 1 ? config.get(1) : "";
+            boolean keyspace = current.contains("K");
+            boolean generic = current.contains("g") || current.contains("A");
+            boolean string = current.contains("$") || current.contains("A");
+            if (!keyspace || !generic || !string) {
+                System.err.println("[键空间通知] 服务端 notify-keyspace-events=\"" + current + "\"，缺少 "
+                        + REQUIRED_EVENTS + " 中的事件，变更通知不可用（将依靠定时同步）；请在 redis.conf 中设置 "
+                        + "notify-keyspace-events " + REQUIRED_EVENTS + "（或已有配置基础上补充），"
+                        + "或由管理员执行 CONFIG SET notify-keyspace-events " + REQUIRED_EVENTS);
+            }
+        } catch (Exception e) {
+            System.err.println("[键空间通知] 无法读取 notify-keyspace-events: " + e.getMessage());
+        }
+    }
+
+    private static void fire(String key) {
+        List<Runnable> keyListeners = listeners.get(key);
+        if (keyListeners == null) {
+            return;
+        }
+        for (Runnable listener : keyListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                System.err.println("[键空间通知] 监听器异常: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 停止订阅
+     */
+    public static synchronized void close() {
+        if (subscriberThread != null) {
+            subscriberThread.interrupt();
+            subscriberThread = null;
+        }
+        if (pubSub != null && pubSub.isSubscribed()) {
+            pubSub.unsubscribe();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.resps.Tuple;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 地图位图本地副本（内存映射文件，堆外存储）
+ * 功能：按块增量同步 Redis 位图——RedisConnector.setBit 在值变化时递增 &lt;键&gt;:version 并把所在块记入
+ * 有序集合 &lt;键&gt;:changes（分值为版本号），副本只 GETRANGE 版本号大于已同步版本的块；
+ * 绕过 setBit 的写入（如小车直接 SETBIT、批量导入）由限频的 BITCOUNT 检查发现，再由服务端逐块摘要找出变化的块；
+ * 本地读取位图状态无网络开销（创建后 RedisConnector 的 getBit/bitCount/getBitmapAsBinary 直接读取副本）；
+ * 文件头带 CRC32 校验与已同步版本号，重启后从文件热恢复并只补同步重启期间变化的块
+ *
+ * 文件格式：[magic int][version int][长度 int][保留 int][已点亮位数 long][数据CRC32 long][已同步版本号 long] + 位图数据
+ */
+public class MapReplica implements AutoCloseable {
+    private static final int MAGIC = 0x4D415052;          // "MAPR"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int CHUNK_SIZE = 1024;            // 同步块大小（字节）
+    static final int CHUNK_BITS = CHUNK_SIZE * 8;          // 变更日志按块记录（setBit 脚本据此换算块号）
+    private static final long FALLBACK_SYNC_INTERVAL = 1000;  // 未收到变更通知时的兜底同步间隔（毫秒）
+    private static final long UNTRACKED_CHECK_INTERVAL = 5000; // 绕过 setBit 的写入的检查间隔（BITCOUNT，毫秒）
+    private static final long VERIFY_INTERVAL = 60000;     // 全量CRC校验间隔（毫秒）
+    // 逐块计算 SHA1 摘要（尾部缺失字节按0补齐，与本地块内容一致），只返回摘要而不传输位图；
+    // 整图扫描，只在发现绕过 setBit 的写入时使用
+    private static final String DIGEST_SCRIPT =
+            "local v = redis.call('get', KEYS[1]) or '' " +
+            "local size = tonumber(ARGV[1]) " +
+            "local total = tonumber(ARGV[2]) " +
+            "local out = {} " +
+            "local start = 0 " +
+            "while start < total do " +
+            "  local n = math.min(size, total - start) " +
+            "  local chunk = string.sub(v, start + 1, start + n) " +
+            "  if #chunk < n then chunk = chunk .. string.rep('\\0', n - #chunk) end " +
+            "  out[#out + 1] = redis.sha1hex(chunk) " +
+            "  start = start + size " +
+            "end " +
+            "return out";
+
+    private final String key;// Redis 位图键名
+    private final String versionKey;// 地图版本号键
+    private final String changesKey;// 变更日志键（块号 -> 最近一次变化的版本号）
+    private final Path path;// 映射文件路径
+    private final int byteLength;// 位图字节数
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int[] chunkCounts;// 每块已点亮位数
+    private final String[] chunkDigests;// 每块内容的 SHA1 摘要（十六进制）
+    private final Runnable changeListener = () -> dirty = true;
+    private long litCount;// 已点亮位数
+    private volatile boolean dirty = true;// 收到变更通知后置位
+    private long syncedVersion;// 已同步到的地图版本号
+    private boolean untrackedSuspect = false;// 收到通知但变更日志中没有新变化，可能有绕过 setBit 的写入
+    private long lastSync;
+    private long lastUntrackedCheck;
+    private long lastVerify;
+
+    /**
+     * 打开（或创建）本地副本
+     * @param file      映射文件路径
+     * @param key       Redis 位图键名
+     * @param cellCount 地图格子数（mapWidth * mapLength）
+     */
+    public MapReplica(String file, String key, long cellCount) throws IOException {
+        this.key = key;
+        this.versionKey = versionKey(key);
+        this.changesKey = changesKey(key);
+        this.path = Paths.get(file);
+        this.byteLength = Math.toIntExact((cellCount + 7) / 8);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) byteLength);
+        this.chunkCounts = new int[(byteLength + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        this.chunkDigests = new String[chunkCounts.length];
+
+        if (isValidFile()) {
+            System.out.println("[地图副本] 从本地文件热恢复: " + path);
+            lastVerify = System.currentTimeMillis(); // 文件已通过CRC校验，不必立即全量下载
+            syncedVersion = buffer.getLong(32);
+            lastUntrackedCheck = 0; // 重启期间可能有绕过 setBit 的写入，首次同步即检查
+        } else {
+            // 文件无效或地图尺寸变化，清空后全量同步
+            for (int i = 0; i < HEADER_SIZE + byteLength; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        recountChunks();
+        writeHeader();
+        KeyspaceNotifier.register(key, changeListener);
+        RedisConnector.useReplica(key, this);
+    }
+
+    /** 地图版本号键（setBit 脚本在值变化时递增） */
+    static String versionKey(String key) {
+        return key + ":version";
+    }
+
+    /** 变更日志键（有序集合：块号 -> 最近一次变化的版本号） */
+    static String changesKey(String key) {
+        return key + ":changes";
+    }
+
+    /**
+     * 校验文件头与数据CRC
+     */
+    private boolean isValidFile() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != byteLength) {
+            return false;
+        }
+        return buffer.getLong(24) == checksum(data());
+    }
+
+    /** 副本尺寸是否与给定格子数一致（地图尺寸变化时需重新打开） */
+    public boolean matches(long cellCount) {
+        return byteLength == (cellCount + 7) / 8;
+    }
+
+    /**
+     * 按需同步：收到变更通知或超过兜底间隔时执行增量同步
+     */
+    public synchronized void syncIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - lastVerify >= VERIFY_INTERVAL) {
+            verify();
+            lastVerify = now;
+        } else if (dirty || now - lastSync >= FALLBACK_SYNC_INTERVAL) {
+            sync();
+        }
+    }
+
+    /**
+     * 增量同步：按变更日志拉取版本号大于已同步版本的块（一次管道读取版本号与日志，一次管道 GETRANGE）；
+     * 收到通知但日志中没有新变化、或兜底同步时，限频用一次 BITCOUNT 检查绕过 setBit 的写入，
+     * 不一致时才由服务端逐块摘要找出变化的块（点亮与熄灭相互抵消的绕过写入由定期全量校验发现）
+     */
+    public synchronized void sync() {
+        boolean notified = dirty;
+        dirty = false; // 先清标志，同步期间的新通知会再次置位
+        long now = System.currentTimeMillis();
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            // 1. 读取版本号与新变化的块
+            Pipeline pipeline = jedis.pipelined();
+            Response<String> version = pipeline.get(versionKey);
+            Response<List<Tuple>> changes = pipeline.zrangeByScoreWithScores(changesKey,
+                    "(" + syncedVersion, "+inf");
+            pipeline.sync();
+            long remoteVersion = version.get() == null ? 0 : Long.parseLong(version.get());
+            if (remoteVersion < syncedVersion) {
+                // 版本号被重置（如清空数据库），变更日志不再可信
+                System.err.println("[地图副本] 地图版本号被重置，全量校验");
+                verify(jedis);
+                lastVerify = now;
+                return;
+            }
+            // 2. 拉取变化的块
+            if (!changes.get().isEmpty()) {
+                List<Integer> changed = new ArrayList<>();
+                for (Tuple change : changes.get()) {
+                    int chunk = Integer.parseInt(change.getElement());
+                    if (chunk < chunkCounts.length) {
+                        changed.add(chunk);
+                    }
+                    syncedVersion = Math.max(syncedVersion, (long) change.getScore());
+                }
+                fetchChunks(jedis, changed);
+            } else if (notified) {
+                untrackedSuspect = true;
+            }
+            // 3. 限频检查绕过 setBit 的写入
+            if ((untrackedSuspect || !notified) && now - lastUntrackedCheck >= UNTRACKED_CHECK_INTERVAL) {
+                lastUntrackedCheck = now;
+                untrackedSuspect = false;
+                if (jedis.bitcount(key) != litCount) {
+                    syncByDigest(jedis);
+                }
+            }
+            writeHeader();
+        } catch (RuntimeException e) {
+            dirty = true; // 同步失败，下次继续
+            throw e;
+        }
+        lastSync = now;
+    }
+
+    /**
+     * 服务端逐块摘要，与本地比对后拉取不同的块
+     */
+    private void syncByDigest(Jedis jedis) {
+        @SuppressWarnings("unchecked")
+        List<Object> digests = (List<Object>) jedis.eval(DIGEST_SCRIPT, List.of(key),
+                List.of(String.valueOf(CHUNK_SIZE), String.valueOf(byteLength)));
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < chunkCounts.length; i++) {
+            if (!chunkDigests[i].equals(digests.get(i))) {
+                changed.add(i);
+            }
+        }
+        if (!changed.isEmpty()) {
+            System.out.println("[地图副本] 发现绕过 setBit 的写入: " + changed.size() + " 块");
+        }
+        fetchChunks(jedis, changed);
+    }
+
+    /**
+     * 一次管道 GETRANGE 拉取给定的块
+     */
+    private void fetchChunks(Jedis jedis, List<Integer> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<byte[]>> ranges = new ArrayList<>(changed.size());
+        for (int chunk : changed) {
+            ranges.add(pipeline.getrange(rawKey, chunkStart(chunk), chunkEnd(chunk)));
+        }
+        pipeline.sync();
+        for (int j = 0; j < changed.size(); j++) {
+            writeChunk(changed.get(j), ranges.get(j).get());
+        }
+    }
+
+    /**
+     * 全量校验：整图下载一次并与本地CRC比对，不一致时以Redis为准覆盖
+     */
+    public synchronized void verify() {
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            verify(jedis);
+        }
+    }
+
+    private void verify(Jedis jedis) {
+        // 先读版本号：下载期间的变化版本号更大，下次增量同步会再次拉取
+        String version = jedis.get(versionKey);
+        byte[] remote = jedis.get(key.getBytes(StandardCharsets.UTF_8));
+        byte[] padded = new byte[byteLength];
+        if (remote != null) {
+            System.arraycopy(remote, 0, padded, 0, Math.min(remote.length, byteLength));
+        }
+        if (checksum(ByteBuffer.wrap(padded)) != checksum(data())) {
+            System.err.println("[地图副本] 校验不一致，以Redis为准重建");
+            for (int i = 0; i < chunkCounts.length; i++) {
+                int start = (int) chunkStart(i);
+                int end = Math.min(byteLength, start + CHUNK_SIZE);
+                byte[] chunk = new byte[end - start];
+                System.arraycopy(padded, start, chunk, 0, chunk.length);
+                writeChunk(i, chunk);
+            }
+        }
+        syncedVersion = version == null ? 0 : Long.parseLong(version);
+        writeHeader();
+        dirty = false;
+        untrackedSuspect = false;
+        lastSync = System.currentTimeMillis();
+        lastUntrackedCheck = lastSync;
+    }
+
+    private void writeChunk(int chunk, byte[] bytes) {
+        int start = (int) chunkStart(chunk);
+        int end = Math.min(byteLength, start + CHUNK_SIZE);
+        int count = 0;
+        for (int offset = start; offset < end; offset++) {
+            int index = offset - start;
+            byte b = (bytes != null && index < bytes.length) ? bytes[index] : 0; // Redis 不返回尾部缺失字节
+            buffer.put(HEADER_SIZE + offset, b);
+            count += Integer.bitCount(b & 0xFF);
+        }
+        litCount += count - chunkCounts[chunk];
+        chunkCounts[chunk] = count;
+        chunkDigests[chunk] = digest(start, end);
+    }
+
+    private void recountChunks() {
+        litCount = 0;
+        for (int i = 0; i < chunkCounts.length; i++) {
+            int start = (int) chunkStart(i);
+            int end = Math.min(byteLength, start + CHUNK_SIZE);
+            int count = 0;
+            for (int offset = start; offset < end; offset++) {
+                count += Integer.bitCount(buffer.get(HEADER_SIZE + offset) & 0xFF);
+            }
+            chunkCounts[i] = count;
+            chunkDigests[i] = digest(start, end);
+            litCount += count;
+        }
+    }
+
+    /**
+     * 本地块内容的 SHA1 摘要（与 DIGEST_SCRIPT 的 redis.sha1hex 一致）
+     */
+    private String digest(int start, int end) {
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.position(HEADER_SIZE + start);
+        chunk.limit(HEADER_SIZE + end);
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(chunk);
+            return HexFormat.of().formatHex(sha1.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, byteLength);
+        buffer.putLong(16, litCount);
+        buffer.putLong(24, checksum(data()));
+        buffer.putLong(32, syncedVersion);
+    }
+
+    private ByteBuffer data() {
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_SIZE);
+        data.limit(HEADER_SIZE + byteLength);
+        return data;
+    }
+
+    private static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static long chunkStart(int chunk) {
+        return (long) chunk * CHUNK_SIZE;
+    }
+
+    private long chunkEnd(int chunk) {
+        return Math.min(byteLength, chunkStart(chunk) + CHUNK_SIZE) - 1;
+    }
+
+    // ------------ 本地读取（无网络开销） ------------
+
+    /** 已点亮位数（等价于 BITCOUNT） */
+    public synchronized long bitCount() {
+        return litCount;
+    }
+
+    /** 获取位图中某一位的值（与Redis位序一致，高位在前） */
+    public boolean getBit(long offset) {
+        if (offset < 0 || offset >= (long) byteLength * 8) {
+            return false;
+        }
+        byte b = buffer.get(HEADER_SIZE + (int) (offset >>> 3));
+        return ((b >> (7 - (offset & 7))) & 1) == 1;
+    }
+
+    /** 将位图内容转换为二进制字符串（与 RedisConnector.getBitmapAsBinary 格式一致） */
+    public synchronized String getBitmapAsBinary() {
+        StringBuilder binaryStr = new StringBuilder(byteLength * 8);
+        for (int offset = 0; offset < byteLength; offset++) {
+            byte b = buffer.get(HEADER_SIZE + offset);
+            for (int i = 7; i >= 0; i--) {
+                binaryStr.append((b >> i) & 1);
+            }
+        }
+        return binaryStr.toString();
+    }
+
+    /**
+     * 刷盘并关闭映射文件
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        RedisConnector.useReplica(key, null);
+        KeyspaceNotifier.unregister(key, changeListener);
+        writeHeader();
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,182 @@
+package org.example;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内近端缓存（只缓存指定的、很少变化的数值键，如 mapWidth、mapLength、CarNumber）
+ * 功能：保存解码后的数值，命中时不访问 Redis；键被修改时由键空间通知立即失效，
+ * 通知丢失（订阅断开）时由 TTL 兜底，最长陈旧时间不超过 TTL
+ *
+ * Jedis 4.3.1 不支持 RESP3 客户端缓存跟踪（CLIENT TRACKING），失效通知使用 KeyspaceNotifier
+ */
+public class NearCache {
+    private final Map<String, Long> ttls = new ConcurrentHashMap<>();// 指定缓存的键 -> TTL（毫秒）
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();// 每次失效加1，防止读取期间失效的旧值写回
+    private final Map<String, byte[]> rawKeys = new ConcurrentHashMap<>();// 预编码的键名（管道按二进制读取）
+
+    // 监控指标
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * 指定缓存键
+     * @param key       键名（值为整数）
+     * @param ttlMillis 缓存有效期（毫秒）
+     */
+    public void designate(String key, long ttlMillis) {
+        if (ttls.putIfAbsent(key, ttlMillis) == null) {
+            generations.put(key, new AtomicLong());
+            KeyspaceNotifier.register(key, () -> invalidate(key));
+        }
+    }
+
+    /**
+     * 读取整数键（命中时直接返回，未命中时读取 Redis 并缓存）
+     * @return 键的值，键不存在时为null
+     */
+    public Long getLong(String key) {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry.value;
+        }
+        long stamp = stamp(key);
+        Long value = decode(RedisConnector.get(key));
+        store(key, stamp, value);
+        return value;
+    }
+
+    /**
+     * 在管道中读取整数键：命中时不向管道加入命令，也不分配新对象
+     */
+    public Read read(Pipeline pipeline, String key) {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry.hit;
+        }
+        byte[] rawKey = rawKeys.computeIfAbsent(key, TickKeys::encode);
+        return new Read(key, null, stamp(key), pipeline.get(rawKey));
+    }
+
+    /**
+     * 查找有效的缓存项（仅指定的键计入命中/未命中）
+     * @return 缓存项，未命中或已过期时为null
+     */
+    private Entry lookup(String key) {
+        if (!ttls.containsKey(key)) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hitCount.incrementAndGet();
+            return entry;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    private long stamp(String key) {
+        AtomicLong generation = generations.get(key);
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * 写入缓存（读取期间键已失效时放弃）
+     */
+    private void store(String key, long stamp, Long value) {
+        Long ttl = ttls.get(key);
+        if (ttl == null) {
+            return;
+        }
+        AtomicLong generation = generations.get(key);
+        entries.compute(key, (k, old) -> generation.get() == stamp
+                ? new Entry(key, value, System.currentTimeMillis() + ttl) : old);
+    }
+
+    /**
+     * 使键的缓存失效（键空间通知回调）
+     */
+    public void invalidate(String key) {
+        AtomicLong generation = generations.get(key);
+        if (generation != null) {
+            generation.incrementAndGet(); // 先增加代数，再删除，保证并发写回被拒绝
+        }
+        if (entries.remove(key) != null) {
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    private static Long decode(String value) {
+        return value == null ? null : Long.parseLong(value);
+    }
+
+    private static Long decode(byte[] value) {
+        return value == null ? null : TickKeys.parseLong(value);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * 缓存项（value 为null表示键不存在）
+     */
+    private class Entry {
+        final Long value;
+        final long expiresAt;
+        final Read hit;// 命中时直接返回的读取结果（复用）
+
+        Entry(String key, Long value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.hit = new Read(key, value, 0, null);
+        }
+    }
+
+    /**
+     * 一次管道读取的结果（管道同步后调用 get）
+     */
+    public class Read {
+        private final String key;
+        private final long stamp;
+        private Response<byte[]> response;// 解码并写入缓存后置为null
+        private Long value;
+
+        private Read(String key, Long cached, long stamp, Response<byte[]> response) {
+            this.key = key;
+            this.value = cached;
+            this.stamp = stamp;
+            this.response = response;
+        }
+
+        /** 整数值，键不存在时为null */
+        public Long get() {
+            if (response != null) {
+                value = decode(response.get());
+                store(key, stamp, value);
+                response = null;
+            }
+            return value;
+        }
+
+        /** 整数值（int），键不存在时返回默认值 */
+        public int getInt(int defaultValue) {
+            Long value = get();
+            return value == null ? defaultValue : Math.toIntExact(value);
+        }
+    }
+}
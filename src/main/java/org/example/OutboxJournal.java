@@ -0,0 +1,298 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 本地发件箱日志（追加写、分段、内存映射）
+ * 功能：Broker 不可用时暂存待发送的消息，恢复后按顺序重放；
+ * 每条记录带递增序号和消息的去重ID（与直接发送时使用的ID相同），读游标持久化，重启后从上次位置继续；
+ * 每次追加和游标移动都立即刷盘，已读完的段先解除映射再删除（Windows 下不能删除仍被映射的文件）
+ *
+ * 记录格式：[长度 int][序号 long][CRC32 int][去重ID长度 int] + UTF-8 去重ID + UTF-8 消息体；
+ * 长度为去重ID与消息体的总字节数，为0表示段内已无数据，CRC32 覆盖去重ID与消息体
+ * 游标文件：[读段号 int][读位置 int][下一个序号 long]
+ */
+public class OutboxJournal implements AutoCloseable {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;  // 段大小（字节）
+    private static final int MAX_SEGMENTS = 16;                // 最多保留段数（磁盘占用上限）
+    private static final int RECORD_HEADER = 20;
+    private static final int CURSOR_SIZE = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+    private int writeSegment;
+    private int writePosition;
+    private int readSegment;
+    private int readPosition;
+    private long nextSeq;
+
+    /**
+     * 打开（或创建）发件箱目录
+     * @param directory 日志目录
+     */
+    public OutboxJournal(String directory) throws IOException {
+        this.dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        this.cursorChannel = FileChannel.open(dir.resolve("cursor"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_SIZE);
+        this.readSegment = cursor.getInt(0);
+        this.readPosition = cursor.getInt(4);
+        this.nextSeq = Math.max(1, cursor.getLong(8));
+
+        // 1. 映射已有的段
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                if (number < readSegment) {
+                    deleteQuietly(file); // 已全部重放的旧段（未映射）
+                } else {
+                    segments.put(number, map(number));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            readPosition = 0;
+            segments.put(readSegment, map(readSegment));
+        } else if (segments.firstKey() != readSegment) {
+            readSegment = segments.firstKey(); // 读游标所在段已丢失，从最早的段开始
+            readPosition = 0;
+        }
+
+        // 2. 扫描最后一段，找到写位置和最大序号（忽略未写完的尾部记录）
+        writeSegment = segments.lastKey();
+        int position = 0;
+        while (true) {
+            Record record = readRecord(writeSegment, position);
+            if (record == null) {
+                break;
+            }
+            nextSeq = Math.max(nextSeq, record.seq + 1);
+            position = record.next;
+        }
+        writePosition = position;
+        if (readSegment == writeSegment && readPosition > writePosition) {
+            readPosition = writePosition;
+        }
+        saveCursor();
+        if (!isEmpty()) {
+            System.out.println("[发件箱] " + dir + " 有待重放的消息，下一个序号 " + nextSeq);
+        }
+    }
+
+    private MappedByteBuffer map(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 追加一条消息并刷盘
+     * @param dedupId 消息的去重ID（重放时原样带上，消费者据此丢弃已收到的消息）
+     * @return 记录序号
+     * @throws IOException 超出磁盘占用上限或消息过大
+     */
+    public synchronized long append(String dedupId, String message) throws IOException {
+        byte[] id = dedupId.getBytes(StandardCharsets.UTF_8);
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[id.length + body.length];
+        System.arraycopy(id, 0, payload, 0, id.length);
+        System.arraycopy(body, 0, payload, id.length, body.length);
+        if (payload.length + RECORD_HEADER > SEGMENT_SIZE) {
+            throw new IOException("消息过大，无法写入发件箱: " + payload.length + " 字节");
+        }
+        // 1. 当前段放不下时切换到新段
+        if (writePosition + RECORD_HEADER + payload.length > SEGMENT_SIZE) {
+            if (segments.size() >= MAX_SEGMENTS) {
+                throw new IOException("发件箱已满（" + MAX_SEGMENTS + " 段），拒绝写入");
+            }
+            writeSegment++;
+            writePosition = 0;
+            segments.put(writeSegment, map(writeSegment));
+        }
+        // 2. 先写消息体和序号，最后写长度，保证崩溃时不会读到半条记录
+        MappedByteBuffer buffer = segments.get(writeSegment);
+        long seq = nextSeq++;
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putLong(writePosition + 4, seq);
+        buffer.putInt(writePosition + 12, (int) crc.getValue());
+        buffer.putInt(writePosition + 16, id.length);
+        buffer.put(writePosition + RECORD_HEADER, payload);
+        buffer.putInt(writePosition, payload.length);
+        // 3. 只刷本条记录所在的页，Broker 不可用期间进程崩溃也不丢消息
+        buffer.force(writePosition, RECORD_HEADER + payload.length);
+        writePosition += RECORD_HEADER + payload.length;
+        cursor.putLong(8, nextSeq);
+        return seq;
+    }
+
+    /**
+     * 查看下一条待重放的消息（不移动游标）
+     * @return 记录，无待重放消息时返回null
+     */
+    public synchronized Record peek() throws IOException {
+        while (true) {
+            if (readSegment == writeSegment && readPosition >= writePosition) {
+                return null;
+            }
+            Record record = readRecord(readSegment, readPosition);
+            if (record != null) {
+                return record;
+            }
+            if (readSegment == writeSegment) {
+                return null;
+            }
+            // 当前段已读完，解除映射后删除并进入下一段（删除失败时留给下次启动清理，不阻塞重放）
+            unmap(segments.remove(readSegment));
+            deleteQuietly(segmentPath(readSegment));
+            readSegment = segments.ceilingKey(readSegment + 1);
+            readPosition = 0;
+            saveCursor();
+        }
+    }
+
+    /**
+     * 确认记录已发送，游标前移
+     */
+    public synchronized void commit(Record record) {
+        if (record.segment == readSegment && record.position == readPosition) {
+            readPosition = record.next;
+            saveCursor();
+        }
+    }
+
+    /** 是否没有待重放的消息 */
+    public synchronized boolean isEmpty() {
+        return readSegment == writeSegment && readPosition >= writePosition;
+    }
+
+    private Record readRecord(int segment, int position) {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (position + RECORD_HEADER > SEGMENT_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER + length > SEGMENT_SIZE) {
+            return null;
+        }
+        long seq = buffer.getLong(position + 4);
+        int expected = buffer.getInt(position + 12);
+        int idLength = buffer.getInt(position + 16);
+        if (idLength < 0 || idLength > length) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(position + RECORD_HEADER, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expected) {
+            return null; // 崩溃时未写完的记录
+        }
+        return new Record(segment, position, position + RECORD_HEADER + length, seq,
+                new String(payload, 0, idLength, StandardCharsets.UTF_8),
+                new String(payload, idLength, length - idLength, StandardCharsets.UTF_8));
+    }
+
+    private void saveCursor() {
+        cursor.putInt(0, readSegment);
+        cursor.putInt(4, readPosition);
+        cursor.putLong(8, nextSeq);
+        cursor.force();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("[发件箱] 删除已重放的段失败，下次启动时清理: " + file + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * 立即解除内存映射（不等待GC），之后才能在 Windows 上删除文件
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[发件箱] 无法解除段映射: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 刷盘并关闭
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        MappedByteBuffer buffer = segments.get(writeSegment);
+        if (buffer != null) {
+            buffer.force();
+        }
+        saveCursor();
+        cursor.force();
+        cursorChannel.close();
+    }
+
+    /**
+     * 日志记录
+     */
+    public static class Record {
+        final int segment;// 所在段号
+        final int position;// 段内位置
+        final int next;// 下一条记录位置
+        final long seq;// 序号
+        final String dedupId;// 去重ID
+        final String message;// 消息内容
+
+        Record(int segment, int position, int next, long seq, String dedupId, String message) {
+            this.segment = segment;
+            this.position = position;
+            this.next = next;
+            this.seq = seq;
+            this.dedupId = dedupId;
+            this.message = message;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public String getDedupId() {
+            return dedupId;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Redis 自动管道
+ * 功能：收集多个线程并发提交的命令，按批量大小或微秒级时间窗口自动合并为管道发送，
+ * 由少量刷新线程执行，每个线程长期持有一个专用连接（断开时才重新获取），结果通过 CompletableFuture 返回
+ */
+public class RedisAutoPipeline {
+    private static final int DEFAULT_CONNECTIONS = 4;        // 刷新线程（连接）数
+    private static final int DEFAULT_MAX_BATCH = 256;        // 单个管道最大命令数
+    private static final long DEFAULT_WINDOW_MICROS = 200;   // 攒批时间窗口（微秒）
+
+    private final BlockingQueue<PendingCommand<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread[] flushers;
+    private final int maxBatch;
+    private final long windowNanos;
+    private volatile boolean running = true;
+
+    public RedisAutoPipeline() {
+        this(DEFAULT_CONNECTIONS, DEFAULT_MAX_BATCH, DEFAULT_WINDOW_MICROS);
+    }
+
+    /**
+     * @param connections  刷新线程（连接）数
+     * @param maxBatch     单个管道最大命令数
+     * @param windowMicros 攒批时间窗口（微秒）
+     */
+    public RedisAutoPipeline(int connections, int maxBatch, long windowMicros) {
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.flushers = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            flushers[i] = new Thread(this::flushLoop, "redis-auto-pipeline-" + i);
+            flushers[i].setDaemon(true);
+            flushers[i].start();
+        }
+    }
+
+    /**
+     * 提交命令
+     * @param command 在管道上发起命令并返回其响应
+     * @return 命令结果
+     */
+    public <T> CompletableFuture<T> submit(Function<Pipeline, Response<T>> command) {
+        PendingCommand<T> pending = new PendingCommand<>(command);
+        if (!running) {
+            pending.future.completeExceptionally(new IllegalStateException("自动管道已关闭"));
+            return pending.future;
+        }
+        queue.add(pending);
+        // 与 close() 竞争时刷新线程可能已退出，自行取回并失败返回，避免结果永不完成
+        if (!running && queue.remove(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("自动管道已关闭"));
+        }
+        return pending.future;
+    }
+
+    private void flushLoop() {
+        List<PendingCommand<?>> batch = new ArrayList<>(maxBatch);
+        Jedis connection = null;// 本线程专用连接
+        try {
+            while (running || !queue.isEmpty()) {
+                try {
+                    // 1. 等待第一条命令
+                    PendingCommand<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    // 2. 在时间窗口内继续攒批，达到批量上限立即发送
+                    long deadline = System.nanoTime() + windowNanos;
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    while (batch.size() < maxBatch) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        PendingCommand<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatch - batch.size());
+                    }
+                    // 3. 一次往返发送整批命令
+                    connection = flush(connection, batch);
+                } catch (InterruptedException e) {
+                    for (PendingCommand<?> pending : batch) {
+                        pending.future.completeExceptionally(new IllegalStateException("自动管道已关闭"));
+                    }
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 在专用连接上发送一批命令
+     * @return 仍可继续使用的连接（连接异常时关闭并返回null，下一批重新获取）
+     */
+    private Jedis flush(Jedis connection, List<PendingCommand<?>> batch) {
+        try {
+            if (connection == null) {
+                connection = RedisConnector.getConnection();
+            }
+            Pipeline pipeline = connection.pipelined();
+            for (PendingCommand<?> pending : batch) {
+                pending.enqueue(pipeline);
+            }
+            pipeline.sync();
+            for (PendingCommand<?> pending : batch) {
+                pending.complete();
+            }
+            return connection;
+        } catch (Exception e) {
+            // 整批失败（连接异常等），逐个通知调用方
+            for (PendingCommand<?> pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            if (connection != null) {
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 停止接收新命令，发送完已提交的命令后关闭
+     */
+    public void close() {
+        running = false;
+        for (Thread flusher : flushers) {
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        PendingCommand<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("自动管道已关闭"));
+        }
+    }
+
+    /**
+     * 待发送命令
+     */
+    private static class PendingCommand<T> {
+        private final Function<Pipeline, Response<T>> command;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Response<T> response;
+
+        PendingCommand(Function<Pipeline, Response<T>> command) {
+            this.command = command;
+        }
+
+        void enqueue(Pipeline pipeline) {
+            try {
+                response = command.apply(pipeline);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void complete() {
+            if (response == null) {
+                return;
+            }
+            try {
+                future.complete(response.get());
+            } catch (Exception e) {
+                // 单条命令错误（如类型错误）不影响同批其他命令
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.example;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis 熔断器
+ * 功能：连续失败达到阈值后打开，打开期间请求快速失败（不再重试等待），
+ * 由后台线程定期探测，探测成功后关闭
+ */
+public class RedisCircuitBreaker {
+    /** 熔断器状态 */
+    public enum State {
+        CLOSED,     // 正常放行
+        OPEN,       // 快速失败，等待后台探测
+        HALF_OPEN   // 后台探测进行中
+    }
+
+    private final int failureThreshold;// 连续失败阈值
+    private final long probeIntervalMillis;// 探测间隔
+    private final Runnable probe;// 探测动作，失败时抛异常
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-circuit-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private ScheduledFuture<?> probeFuture;
+
+    // 监控指标
+    private final AtomicLong rejectedCount = new AtomicLong();// 快速失败次数
+    private final AtomicLong failureCount = new AtomicLong();// 失败次数
+    private final AtomicLong openCount = new AtomicLong();// 打开次数
+
+    /**
+     * @param failureThreshold    连续失败多少次后打开
+     * @param probeIntervalMillis 打开后探测间隔（毫秒）
+     * @param probe               探测动作（如 PING），失败时抛异常
+     */
+    public RedisCircuitBreaker(int failureThreshold, long probeIntervalMillis, Runnable probe) {
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalMillis = probeIntervalMillis;
+        this.probe = probe;
+    }
+
+    /**
+     * 是否放行请求（打开时计为一次快速失败）
+     */
+    public boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /** 记录一次成功 */
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /** 记录一次失败，达到阈值时打开熔断器 */
+    public void recordFailure() {
+        failureCount.incrementAndGet();
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    private synchronized void open() {
+        if (state != State.CLOSED) {
+            return;
+        }
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        openCount.incrementAndGet();
+        System.err.println("[熔断器] Redis连续失败" + consecutiveFailures.get() + "次，熔断器打开");
+        probeFuture = prober.scheduleWithFixedDelay(this::runProbe,
+                probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runProbe() {
+        state = State.HALF_OPEN;
+        try {
+            probe.run();
+            close();
+        } catch (Exception e) {
+            state = State.OPEN;
+        }
+    }
+
+    private synchronized void close() {
+        consecutiveFailures.set(0);
+        state = State.CLOSED;
+        if (probeFuture != null) {
+            probeFuture.cancel(false);
+            probeFuture = null;
+        }
+        System.out.println("[熔断器] Redis探测成功，熔断器关闭（打开持续 "
+                + (System.currentTimeMillis() - openedAt) + " 毫秒）");
+    }
+
+    /** 停止后台探测 */
+    public void shutdown() {
+        prober.shutdownNow();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getOpenCount() {
+        return openCount.get();
+    }
+}
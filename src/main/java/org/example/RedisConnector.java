@@ -2,9 +2,17 @@ package org.example;
 import redis.clients.jedis.*;
 import redis.clients.jedis.args.BitOP;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 /**
  * Redis 连接管理工具类（基于 Jedis）
@@ -19,6 +27,22 @@ public class RedisConnector{
     private static final int RECONNECT_INTERVAL = 2000; // 重连间隔(毫秒)
     private static final int MAX_RETRY_TIMES = 5;       // 最大重试次数
     private static volatile boolean isReconnecting = false; // 是否正在重连
+    private static RedisAutoPipeline autoPipeline; // 异步命令自动管道（首次使用时创建）
+    private static final NearCache nearCache = new NearCache(); // 很少变化的数值键的近端缓存
+    // 批量写入配置
+    private static final int BULK_CHUNK_SIZE = 500;         // 每条 RPUSH 携带的元素数
+    private static final int BULK_PIPELINE_DEPTH = 64;      // 每次管道同步前累积的命令数
+    private static final int BULK_SETRANGE_BYTES = 64 * 1024; // 每条 SETRANGE 的最大字节数
+    private static final byte[] BULK_ONES = ones(BULK_SETRANGE_BYTES);  // 整块 SETRANGE 共用的 0xFF 缓冲（只读）
+    private static final Map<String, MapReplica> replicas = new ConcurrentHashMap<>();// 位图键名 -> 本地副本
+    private static final Map<String, String> scriptShas = new ConcurrentHashMap<>();// Lua 脚本 -> SHA1（EVALSHA 用）
+    private static final int BULK_TAIL_CACHE_BYTES = 4096;  // 按长度缓存的 0xFF 缓冲上限（通常是一行地图的字节数）
+    private static final Map<Integer, byte[]> BULK_ONES_TAILS = new ConcurrentHashMap<>(); // 不足整块的 0xFF 缓冲，按长度复用
+    // 熔断器配置：连续失败阈值与后台探测间隔
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+    private static final long BREAKER_PROBE_INTERVAL = 500;
+    private static final RedisCircuitBreaker breaker = new RedisCircuitBreaker(
+            BREAKER_FAILURE_THRESHOLD, BREAKER_PROBE_INTERVAL, RedisConnector::probe);
     // 静态初始化连接池
     static {
         initPool("192.168.43.69", 6379, null);
@@ -31,12 +55,7 @@ public class RedisConnector{
      * @param password 密码（无密码传null）
      */
     public static void initPool(String host, int port, String password) {
-        JedisPoolConfig config = new JedisPoolConfig();
-        config.setMaxTotal(MAX_TOTAL);
-        config.setMaxIdle(MAX_IDLE);
-
-        config.setTestOnBorrow(false); // 禁用借出时测试（提升性能）
-        jedisPool = new JedisPool(config, host, port, TIMEOUT, password);
+        jedisPool = newPool(host, port, password);
         // 添加连接测试
         try (Jedis jedis = jedisPool.getResource()) {
             jedis.ping(); // 实际测试连接
@@ -48,6 +67,31 @@ public class RedisConnector{
         }
     }
 
+    /**
+     * 创建连接池：借出时不测试（省去每次借出的PING往返），由空闲检测剔除失效连接；
+     * 连接归还时按是否损坏（命令超时、连接断开）记录熔断器成功/失败，所有调用方的命令异常都计入熔断器
+     */
+    private static JedisPool newPool(String host, int port, String password) {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(MAX_TOTAL);
+        config.setMaxIdle(MAX_IDLE);
+        config.setTestOnBorrow(false); // 禁用借出时测试（提升性能）
+        config.setTestWhileIdle(true); // 空闲连接由后台检测
+        return new JedisPool(config, host, port, TIMEOUT, password) {
+            @Override
+            public void returnResource(Jedis resource) {
+                super.returnResource(resource);
+                breaker.recordSuccess();
+            }
+
+            @Override
+            public void returnBrokenResource(Jedis resource) {
+                super.returnBrokenResource(resource);
+                breaker.recordFailure();
+            }
+        };
+    }
+
     /**
      * 获取Jedis连接 看看（用完必须调用close()归还）
      */
@@ -57,41 +101,41 @@ public class RedisConnector{
         } catch (JedisConnectionException e) {
             throw new RuntimeException("Redis连接失败: " + e.getMessage(), e);
         }*/
-        int retryCount = 0;
-
-        while (retryCount <= MAX_RETRY_TIMES) {
-            try {
-                if (jedisPool == null || jedisPool.isClosed()) {
-                    throw new JedisConnectionException("连接池未初始化或已关闭");
-                }
-
-                Jedis jedis = jedisPool.getResource();
-                // 简单测试连接是否有效
-                jedis.ping();
-                return jedis;
-
-            } catch (JedisConnectionException e) {
-                retryCount++;
-                System.err.println("获取Redis连接失败，尝试重连(" + retryCount + "/" + MAX_RETRY_TIMES + ")");
+        // 熔断器打开时快速失败，由后台探测负责恢复，调用线程不再重试等待
+        if (!breaker.allowRequest()) {
+            throw new JedisConnectionException("Redis熔断器已打开，快速失败");
+        }
+        try {
+            if (jedisPool == null || jedisPool.isClosed()) {
+                throw new JedisConnectionException("连接池未初始化或已关闭");
+            }
 
-                if (retryCount <= MAX_RETRY_TIMES) {
-                    // 启动异步重连线程
-                    if (!isReconnecting) {
-                        startReconnectThread("192.168.43.69", 6379, null);
-                    }
+            // 不再逐次PING：命令失败时连接以损坏状态归还，由连接池计入熔断器
+            return jedisPool.getResource();
 
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(RECONNECT_INTERVAL);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                    }
-                } else {
-                    throw new RuntimeException("Redis连接失败，已达到最大重试次数", e);
-                }
+        } catch (JedisConnectionException e) {
+            breaker.recordFailure();
+            System.err.println("获取Redis连接失败: " + e.getMessage());
+            // 启动异步重连线程
+            if (!isReconnecting) {
+                startReconnectThread("192.168.43.69", 6379, null);
             }
+            throw e;
         }
+    }
 
-        throw new RuntimeException("无法获取Redis连接");
+    /**
+     * 熔断器探测：绕过熔断器直接PING
+     */
+    private static void probe() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.ping();
+        }
+    }
+
+    /** 熔断器（状态与监控指标） */
+    public static RedisCircuitBreaker circuitBreaker() {
+        return breaker;
     }
     /**
      * 启动异步重连线程
@@ -119,12 +163,7 @@ public class RedisConnector{
                     }
 
                     // 创建新连接池
-                    JedisPoolConfig config = new JedisPoolConfig();
-                    config.setMaxTotal(MAX_TOTAL);
-                    config.setMaxIdle(MAX_IDLE);
-                    config.setTestOnBorrow(false);
-
-                    jedisPool = new JedisPool(config, host, port, TIMEOUT, password);
+                    jedisPool = newPool(host, port, password);
 
                     // 测试新连接
                     try (Jedis jedis = jedisPool.getResource()) {
@@ -258,6 +297,32 @@ public class RedisConnector{
             return jedis.ltrim(key, start, stop);
         }
     }
+    // ------------ 流(Stream)操作 ------------
+
+    /** 向流中追加条目（ID由Redis生成） */
+    public static StreamEntryID xadd(String key, Map<String, String> fields) {
+        try (Jedis jedis = getConnection()) {
+            return jedis.xadd(key, StreamEntryID.NEW_ENTRY, fields);
+        }
+    }
+
+    /**
+     * 创建消费组
+     * @param makeStream 流不存在时是否自动创建（MKSTREAM）
+     */
+    public static String xgroupCreate(String key, String groupName, StreamEntryID id, boolean makeStream) {
+        try (Jedis jedis = getConnection()) {
+            return jedis.xgroupCreate(key, groupName, id, makeStream);
+        }
+    }
+
+    /** 确认消费组中的条目 */
+    public static long xack(String key, String groupName, StreamEntryID... ids) {
+        try (Jedis jedis = getConnection()) {
+            return jedis.xack(key, groupName, ids);
+        }
+    }
+
      /**清空数据库**/
     public static void flushDB() {
         try (Jedis jedis =getConnection()) {
@@ -273,11 +338,62 @@ public class RedisConnector{
      * @param key    键名
      * @param offset 偏移量（从0开始）
      * @param value  布尔值（true=1, false=0）
+     * 同时维护该位图的前沿索引（未建立索引时只设置位）与副本变更日志
      * @return 该位原来的值（0或1）
      */
     public static boolean setBit(String key, long offset, boolean value) {
         try (Jedis jedis = getConnection()) {
-            return jedis.setbit(key, offset, value);
+            Object old = evalCached(jedis, FrontierIndex.SETBIT_SCRIPT, setBitKeys(key), setBitArgs(offset, value));
+            return Long.valueOf(1).equals(old);
+        }
+    }
+
+    /**
+     * 以 EVALSHA 执行脚本（每次只发送40字节的摘要，不再发送脚本源码）；
+     * 服务端没有该脚本（重启、SCRIPT FLUSH 或首次执行）时回退为 EVAL，EVAL 同时把脚本载入服务端缓存
+     */
+    static Object evalCached(Jedis jedis, String script, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(scriptSha(script), keys, args);
+        } catch (JedisNoScriptException e) {
+            return jedis.eval(script, keys, args);
+        }
+    }
+
+    /** 脚本的 SHA1 摘要（十六进制小写，与 SCRIPT LOAD 返回值一致），按脚本缓存 */
+    static String scriptSha(String script) {
+        return scriptShas.computeIfAbsent(script, s -> {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("缺少 SHA-1 算法", e);
+            }
+        });
+    }
+
+    private static List<String> setBitKeys(String key) {
+        return Arrays.asList(key, FrontierIndex.indexKey(key), MapReplica.versionKey(key), MapReplica.changesKey(key));
+    }
+
+    private static List<String> setBitArgs(long offset, boolean value) {
+        return Arrays.asList(String.valueOf(offset), value ? "1" : "0", String.valueOf(FrontierIndex.REGION_CELLS),
+                String.valueOf(MapReplica.CHUNK_BITS));
+    }
+
+    /**
+     * 登记位图的本地副本：登记后 getBit / bitCount / getBitmapAsBinary 直接读取副本（截至最近一次同步），不访问Redis
+     * @param replica 副本，为null时取消登记
+     */
+    static void useReplica(String key, MapReplica replica) {
+        if (replica == null) {
+            replicas.remove(key);
+        } else {
+            replicas.put(key, replica);
         }
     }
 
@@ -288,6 +404,10 @@ public class RedisConnector{
      * @return true=1, false=0
      */
     public static boolean getBit(String key, long offset) {
+        MapReplica replica = replicas.get(key);
+        if (replica != null) {
+            return replica.getBit(offset);
+        }
         try (Jedis jedis = getConnection()) {
             return jedis.getbit(key, offset);
         }
@@ -299,6 +419,10 @@ public class RedisConnector{
      * @return 1的个数
      */
     public static long bitCount(String key) {
+        MapReplica replica = replicas.get(key);
+        if (replica != null) {
+            return replica.bitCount();
+        }
         try (Jedis jedis = getConnection()) {
             return jedis.bitcount(key);
         }
@@ -330,6 +454,10 @@ public class RedisConnector{
      * @return 二进制字符串（按字节对齐）
      */
     public static String getBitmapAsBinary(String key) {
+        MapReplica replica = replicas.get(key);
+        if (replica != null) {
+            return replica.getBitmapAsBinary();
+        }
         try (Jedis jedis = getConnection()) {
             byte[] bytes = jedis.get(key.getBytes());
             if (bytes == null) return null;
@@ -351,11 +479,219 @@ public class RedisConnector{
         }
     }
 
+    // ------------ 批量写入 ------------
+
+    /**
+     * 批量追加列表元素：按块拆分为多条 RPUSH，分批管道发送
+     * @param progress 每批同步后回调本批写入的元素数，可为null
+     * @return 写入的元素数
+     */
+    public static long rpushAll(String key, List<String> values, LongConsumer progress) {
+        try (Jedis jedis = getConnection()) {
+            Pipeline pipeline = jedis.pipelined();
+            int commands = 0;
+            long batch = 0;
+            for (int from = 0; from < values.size(); from += BULK_CHUNK_SIZE) {
+                List<String> chunk = values.subList(from, Math.min(values.size(), from + BULK_CHUNK_SIZE));
+                pipeline.rpush(key, chunk.toArray(new String[0]));
+                batch += chunk.size();
+                if (++commands == BULK_PIPELINE_DEPTH) {
+                    pipeline.sync();
+                    report(progress, batch);
+                    commands = 0;
+                    batch = 0;
+                }
+            }
+            pipeline.sync();
+            report(progress, batch);
+            return values.size();
+        }
+    }
+
+    /**
+     * 批量点亮位图中的连续区间：整字节部分用 SETRANGE 写 0xFF，首尾不足一字节的部分用 BITFIELD
+     * （不经过前沿索引脚本，写入后需调用 FrontierIndex.rebuild）
+     * @param ranges   区间列表，每项为 {起始位, 位数}
+     * @param progress 每批同步后回调本批点亮的位数，可为null
+     * @return 点亮的位数
+     */
+    public static long setBitRanges(String key, List<long[]> ranges, LongConsumer progress) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        long total = 0;
+        try (Jedis jedis = getConnection()) {
+            Pipeline pipeline = jedis.pipelined();
+            int commands = 0;
+            long batch = 0;
+            for (long[] range : ranges) {
+                long offset = range[0];
+                long end = range[0] + range[1];
+                while (offset < end) {
+                    long count;
+                    if (offset % 8 != 0 || end - offset < 8) {
+                        // 1. 不足一字节的首尾部分
+                        count = Math.min(end - offset, 8 - offset % 8);
+                        pipeline.bitfield(key, "SET", "u" + count, String.valueOf(offset),
+                                String.valueOf((1L << count) - 1));
+                    } else {
+                        // 2. 整字节部分
+                        int bytes = (int) Math.min((end - offset) / 8, BULK_SETRANGE_BYTES);
+                        pipeline.setrange(rawKey, offset / 8, onesOfLength(bytes));
+                        count = bytes * 8L;
+                    }
+                    offset += count;
+                    batch += count;
+                    total += count;
+                    if (++commands == BULK_PIPELINE_DEPTH) {
+                        pipeline.sync();
+                        report(progress, batch);
+                        commands = 0;
+                        batch = 0;
+                    }
+                }
+            }
+            pipeline.sync();
+            report(progress, batch);
+        }
+        return total;
+    }
+
+    /**
+     * 长度为 bytes 的 0xFF 缓冲：整块共用 BULK_ONES，较短的按长度缓存，其余（每个区间至多一次）临时分配
+     * （管道在同步前只持有引用，缓冲从不修改，可被多个线程同时使用）
+     */
+    private static byte[] onesOfLength(int bytes) {
+        if (bytes == BULK_SETRANGE_BYTES) {
+            return BULK_ONES;
+        }
+        if (bytes > BULK_TAIL_CACHE_BYTES) {
+            return ones(bytes);
+        }
+        return BULK_ONES_TAILS.computeIfAbsent(bytes, RedisConnector::ones);
+    }
+
+    private static byte[] ones(int bytes) {
+        byte[] ones = new byte[bytes];
+        Arrays.fill(ones, (byte) 0xFF);
+        return ones;
+    }
+
+    /**
+     * 批量设置字符串键值（一次管道）
+     */
+    public static void setAll(Map<String, String> values) {
+        try (Jedis jedis = getConnection()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                pipeline.set(entry.getKey(), entry.getValue());
+            }
+            pipeline.sync();
+        }
+    }
+
+    private static void report(LongConsumer progress, long count) {
+        if (progress != null && count > 0) {
+            progress.accept(count);
+        }
+    }
+
+    // ------------ 近端缓存 ------------
+
+    /**
+     * 指定缓存的整数键（键被修改时通过键空间通知失效）
+     * @param ttlMillis 缓存有效期（毫秒）
+     */
+    public static void cacheKey(String key, long ttlMillis) {
+        nearCache.designate(key, ttlMillis);
+    }
+
+    /** 读取整数键（指定缓存的键优先从近端缓存读取），键不存在时返回null */
+    public static Long getCachedLong(String key) {
+        return nearCache.getLong(key);
+    }
+
+    /** 近端缓存（管道读取与命中率指标） */
+    public static NearCache nearCache() {
+        return nearCache;
+    }
+
+    // ------------ 异步操作（自动管道） ------------
+
+    /** 获取自动管道（懒加载） */
+    private static synchronized RedisAutoPipeline autoPipeline() {
+        if (autoPipeline == null) {
+            autoPipeline = new RedisAutoPipeline();
+        }
+        return autoPipeline;
+    }
+
+    /**
+     * 以下异步方法不借出连接、不阻塞调用线程：多个线程并发提交的命令由自动管道按批量大小或微秒级时间窗
+     * 合并为一次管道发送，返回的 Future 在管道同步后完成（Redis 出错时异常完成）
+     */
+
+    /** 异步设置字符串键值 */
+    public static CompletableFuture<String> setAsync(String key, String value) {
+        return autoPipeline().submit(p -> p.set(key, value));
+    }
+
+    /** 异步获取字符串值 */
+    public static CompletableFuture<String> getAsync(String key) {
+        return autoPipeline().submit(p -> p.get(key));
+    }
+
+    /**
+     * 异步设置位图中某一位的值（与 setBit 一样经过前沿索引脚本，以 EVALSHA 发送，服务端没有脚本时回退为 EVAL），
+     * 返回该位原来的值
+     */
+    public static CompletableFuture<Boolean> setBitAsync(String key, long offset, boolean value) {
+        List<String> keys = setBitKeys(key);
+        List<String> args = setBitArgs(offset, value);
+        String sha = scriptSha(FrontierIndex.SETBIT_SCRIPT);
+        return autoPipeline().<Object>submit(p -> p.evalsha(sha, keys, args))
+                .exceptionallyCompose(e -> e instanceof JedisNoScriptException
+                        ? autoPipeline().<Object>submit(p -> p.eval(FrontierIndex.SETBIT_SCRIPT, keys, args))
+                        : CompletableFuture.failedFuture(e))
+                .thenApply(old -> Long.valueOf(1).equals(old));
+    }
+
+    /** 异步从列表左侧插入元素 */
+    public static CompletableFuture<Long> lpushAsync(String key, String... values) {
+        return autoPipeline().submit(p -> p.lpush(key, values));
+    }
+
+    /** 异步从列表右侧插入元素 */
+    public static CompletableFuture<Long> rpushAsync(String key, String... values) {
+        return autoPipeline().submit(p -> p.rpush(key, values));
+    }
+
+    /** 异步获取列表长度 */
+    public static CompletableFuture<Long> llenAsync(String key) {
+        return autoPipeline().submit(p -> p.llen(key));
+    }
+
+    /** 异步发布消息到频道 */
+    public static CompletableFuture<Long> publishAsync(String channel, String message) {
+        return autoPipeline().submit(p -> p.publish(channel, message));
+    }
+
+    /**
+     * 异步确认消费组中的条目（任务流使用，多辆车的确认合并为一个管道）
+     */
+    public static CompletableFuture<Long> xackAsync(String key, String groupName, StreamEntryID... ids) {
+        return autoPipeline().submit(p -> p.xack(key, groupName, ids));
+    }
+
     /** 关闭连接池 */
     public static synchronized void closePool() {
+        // 先发送完自动管道中已提交的命令
+        if (autoPipeline != null) {
+            autoPipeline.close();
+            autoPipeline = null;
+        }
         if (jedisPool != null && !jedisPool.isClosed()) {
             jedisPool.close();
         }
+        breaker.shutdown();
     }
     /**
      * 从列表中移除元素
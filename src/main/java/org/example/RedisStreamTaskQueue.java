@@ -0,0 +1,271 @@
+package org.example;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.StreamGroupInfo;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 基于 Redis Streams 的小车任务队列
+ * 功能：每辆小车一个 Stream（Car00iTaskStream），Control 以消费组阻塞读取（XREADGROUP），
+ * 派发后条目留在待确认列表中，小车在确认队列上回复执行完成的指令后才 XACK（complete），
+ * 因此消费组的 pending 同时表示“小车正在执行”；执行超时未完成的条目通过 XAUTOCLAIM 重新认领并重发
+ */
+public class RedisStreamTaskQueue {
+    private static final String STREAM_SUFFIX = "TaskStream";
+    private static final String FIELD_TASK = "task";
+    private static final int BLOCK_MILLIS = 1000;        // 阻塞读取超时（需小于Redis socket超时）
+    private static final int READ_COUNT = 64;            // 单次读取最大条目数
+    private static final long CLAIM_INTERVAL = 5000;     // XAUTOCLAIM 扫描间隔（毫秒）
+    private static final long MIN_IDLE_TIME = Long.getLong("control.taskStream.execTimeoutMs", 60000);// 派发后多久未完成视为卡住（毫秒）
+    private static final StreamEntryID START_ID = new StreamEntryID();// 0-0，XAUTOCLAIM 起始/结束游标
+
+    private final String groupName;// 消费组名
+    private final String consumerName;// 消费者名
+    private final Set<String> createdGroups = ConcurrentHashMap.newKeySet();// 已创建消费组的Stream
+    private final Map<String, Deque<StreamEntryID>> executing = new ConcurrentHashMap<>();// 发给小车的指令 -> 等待完成的条目（按派发顺序）
+    private volatile boolean running = false;
+    private Thread consumerThread;
+
+    /**
+     * @param groupName    消费组名
+     * @param consumerName 本进程在消费组中的名字
+     */
+    public RedisStreamTaskQueue(String groupName, String consumerName) {
+        this.groupName = groupName;
+        this.consumerName = consumerName;
+    }
+
+    /** 小车任务流键名，如 Car001TaskStream */
+    public static String streamKey(int carIndex) {
+        return "Car00" + carIndex + STREAM_SUFFIX;
+    }
+
+    /**
+     * 向小车任务流追加任务（供导航器/初始化脚本使用）
+     * @return 新条目的ID
+     */
+    public static StreamEntryID addTask(int carIndex, String task) {
+        return RedisConnector.xadd(streamKey(carIndex), Collections.singletonMap(FIELD_TASK, task));
+    }
+
+    /**
+     * 启动消费线程（阻塞读取，有新任务时立即唤醒）
+     * @param carCount 当前小车数量（每轮读取前调用）
+     * @param handler  任务处理回调，返回发给小车的指令（小车完成后按该内容调用 complete），抛异常则不记录，超时后重新认领
+     */
+    public synchronized void startConsumer(IntSupplier carCount, StreamTaskHandler handler) {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumerThread = new Thread(() -> {
+            long lastClaim = 0;
+            while (running) {
+                try {
+                    int number = carCount.getAsInt();
+                    if (number <= 0) {
+                        TimeUnit.MILLISECONDS.sleep(BLOCK_MILLIS);
+                        continue;
+                    }
+                    // 1. 定期认领卡住的条目
+                    long now = System.currentTimeMillis();
+                    if (now - lastClaim >= CLAIM_INTERVAL) {
+                        for (int i = 1; i <= number; i++) {
+                            claimStuck(i, handler);
+                        }
+                        lastClaim = now;
+                    }
+                    // 2. 阻塞读取所有小车的新任务
+                    readNew(number, handler);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    System.err.println("[任务流] 读取失败: " + e.getMessage());
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(BLOCK_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }, "redis-stream-consumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+        System.out.println(" [*] 任务流消费者已启动: " + groupName + "/" + consumerName);
+    }
+
+    /**
+     * 读取并派发新条目
+     */
+    private void readNew(int number, StreamTaskHandler handler) {
+        Map<String, StreamEntryID> streams = new LinkedHashMap<>();
+        Map<String, Integer> carIndexes = new HashMap<>();
+        for (int i = 1; i <= number; i++) {
+            String key = streamKey(i);
+            ensureGroup(key);
+            streams.put(key, StreamEntryID.UNRECEIVED_ENTRY);
+            carIndexes.put(key, i);
+        }
+
+        List<Map.Entry<String, List<StreamEntry>>> result;
+        try (Jedis jedis = RedisConnector.getConnection()) {
+            result = jedis.xreadGroup(groupName, consumerName,
+                    XReadGroupParams.xReadGroupParams().count(READ_COUNT).block(BLOCK_MILLIS), streams);
+        }
+        if (result == null) {
+            return; // 超时，无新任务
+        }
+        for (Map.Entry<String, List<StreamEntry>> stream : result) {
+            int carIndex = carIndexes.get(stream.getKey());
+            for (StreamEntry entry : stream.getValue()) {
+                dispatch(stream.getKey(), carIndex, entry, handler);
+            }
+        }
+    }
+
+    /**
+     * 认领空闲超过 MIN_IDLE_TIME 的待确认条目并重新派发（按返回的游标翻页，直到游标回到 0-0）
+     */
+    private void claimStuck(int carIndex, StreamTaskHandler handler) {
+        String key = streamKey(carIndex);
+        ensureGroup(key);
+        StreamEntryID cursor = new StreamEntryID();
+        do {
+            Map.Entry<StreamEntryID, List<StreamEntry>> claimed;
+            try (Jedis jedis = RedisConnector.getConnection()) {
+                claimed = jedis.xautoclaim(key, groupName, consumerName, MIN_IDLE_TIME,
+                        cursor, XAutoClaimParams.xAutoClaimParams().count(READ_COUNT));
+            }
+            if (claimed == null) {
+                return;
+            }
+            for (StreamEntry entry : claimed.getValue()) {
+                System.out.println("[任务流] 重新认领卡住的任务: " + key + " " + entry.getID());
+                dispatch(key, carIndex, entry, handler);
+            }
+            cursor = claimed.getKey();
+        } while (running && cursor != null && !START_ID.equals(cursor));
+    }
+
+    /**
+     * 在管道中查询小车任务流的消费组信息（任务流模式下据此判断小车是否还有任务）
+     */
+    public static Response<List<StreamGroupInfo>> groupInfo(Pipeline pipeline, int carIndex) {
+        return pipeline.xinfoGroups(streamKey(carIndex));
+    }
+
+    /**
+     * 管道同步后判断本消费组是否还有未读取（lag）或未完成（pending，小车正在执行）的条目
+     * lag 需要 Redis 7；lag 未知（旧版本或条目被删除）时保守地视为有任务
+     */
+    public boolean hasBacklog(Response<List<StreamGroupInfo>> response) {
+        List<StreamGroupInfo> groups;
+        try {
+            groups = response.get();
+        } catch (JedisDataException e) {
+            return false; // 任务流尚未创建
+        }
+        for (StreamGroupInfo group : groups) {
+            if (groupName.equals(group.getName())) {
+                if (group.getPending() > 0) {
+                    return true;
+                }
+                Object lag = group.getGroupInfo().get("lag");
+                return !(lag instanceof Long) || (Long) lag > 0;
+            }
+        }
+        return true; // 任务流已存在但消费组尚未创建，条目都还未读取
+    }
+
+    private void dispatch(String key, int carIndex, StreamEntry entry, StreamTaskHandler handler) {
+        try {
+            String command = handler.handle(carIndex, entry.getFields().get(FIELD_TASK));
+            // 不在派发时确认：条目留在待确认列表中直到小车回复完成
+            Deque<StreamEntryID> ids = executing.computeIfAbsent(command, k -> new ConcurrentLinkedDeque<>());
+            ids.remove(entry.getID()); // 重新认领的条目不重复记录
+            ids.add(entry.getID());
+        } catch (Exception e) {
+            // 留在待确认列表中，等待 XAUTOCLAIM 重新认领
+            System.err.println("[任务流] 小车" + carIndex + " 任务派发失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 小车回复执行完成：确认该指令最早派发的条目（确认走自动管道，不阻塞确认队列的消费线程；
+     * 确认失败的条目留在待确认列表中，超时后重新认领）
+     * @param command 小车回复的指令内容
+     * @return 是否有对应的条目
+     */
+    public boolean complete(String command) {
+        int carIndex = AckTracker.carIndex(command);
+        Deque<StreamEntryID> ids = carIndex > 0 ? executing.get(AckTracker.body(command)) : null;
+        StreamEntryID id = ids == null ? null : ids.poll();
+        if (id == null) {
+            return false;
+        }
+        RedisConnector.xackAsync(streamKey(carIndex), groupName, id).whenComplete((acked, error) -> {
+            if (error != null) {
+                System.err.println("[任务流] 小车" + carIndex + " 任务确认失败: " + error.getMessage());
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 创建消费组（已存在时忽略 BUSYGROUP 错误）
+     */
+    private void ensureGroup(String key) {
+        if (createdGroups.contains(key)) {
+            return;
+        }
+        try {
+            RedisConnector.xgroupCreate(key, groupName, new StreamEntryID(), true);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+        createdGroups.add(key);
+    }
+
+    /**
+     * 停止消费线程
+     */
+    public synchronized void close() {
+        running = false;
+        if (consumerThread != null) {
+            consumerThread.interrupt();
+            consumerThread = null;
+        }
+    }
+
+    /**
+     * 任务流处理回调接口
+     */
+    public interface StreamTaskHandler {
+        /**
+         * @return 发给小车的指令内容
+         */
+        String handle(int carIndex, String task) throws Exception;
+    }
+}
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 发送通道
+ * 功能：每个队列一个有界缓冲区和独立发送线程，调用方只入队不等待 Broker；
+ * 缓冲区满时按溢出策略处理（显示器丢弃最旧消息，小车/导航转存发件箱，从不丢弃）
+ *
+ * 入队从不加锁、不做磁盘或网络 I/O：SPILL 溢出时只标记转存状态，由通道线程按入队顺序把积压逐条写入发件箱，
+ * 直到缓冲区清空；之后入队的消息由发送动作判断发件箱仍有积压时继续转存，直到积压重放完毕
+ */
+public class SendLane {
+    /** 缓冲区满时的处理策略 */
+    public enum OverflowPolicy {
+        DROP_OLDEST, // 丢弃最旧的消息（可合并的刷新类消息）
+        SPILL        // 转存发件箱，从不丢弃
+    }
+
+    /** 实际发送动作（在通道线程中执行） */
+    public interface Delivery {
+        void deliver(String message, String dedupId, TraceContext.Stamp stamp);
+    }
+
+    private final String name;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Entry> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlog = new AtomicInteger();// 缓冲区中的消息数
+    private final Delivery delivery;
+    private final Delivery spill;
+    private final Thread thread;
+    private volatile boolean spilling = false;// SPILL 溢出后通道线程转存积压，直到缓冲区清空
+    private volatile boolean running = true;
+
+    // 监控指标
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private volatile long maxWaitNanos;// 消息在缓冲区中的最长等待时间
+
+    /**
+     * @param name     通道名（用于线程名和日志）
+     * @param capacity 缓冲区容量
+     * @param policy   溢出策略
+     * @param delivery 发送动作
+     * @param spill    SPILL 策略下缓冲区满时的转存动作（在通道线程中执行）
+     */
+    public SendLane(String name, int capacity, OverflowPolicy policy, Delivery delivery, Delivery spill) {
+        this.name = name;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.delivery = delivery;
+        this.spill = spill;
+        this.thread = new Thread(this::sendLoop, "send-lane-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 消息入队（不阻塞，不等待通道线程，也不写发件箱）
+     * @param dedupId 去重ID（直接发送与发件箱重放使用同一ID）
+     * @param stamp   追踪信息（随消息一起交给发送动作）
+     */
+    public void offer(String message, String dedupId, TraceContext.Stamp stamp) {
+        buffer.offer(new Entry(message, dedupId, stamp, System.nanoTime()));
+        if (backlog.incrementAndGet() > capacity) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    // 丢弃最旧的消息直到不超过容量
+                    while (backlog.get() > capacity && buffer.poll() != null) {
+                        backlog.decrementAndGet();
+                        droppedCount.incrementAndGet();
+                    }
+                    break;
+                case SPILL:
+                default:
+                    // 交给通道线程按顺序转存，调用方不等待正在进行的发送，也不做磁盘同步
+                    spilling = true;
+                    break;
+            }
+        }
+        LockSupport.unpark(thread);
+    }
+
+    private void sendLoop() {
+        while (running || !buffer.isEmpty()) {
+            Entry entry = buffer.poll();
+            if (entry == null) {
+                spilling = false; // 积压已转存完，之后的消息由发送动作按发件箱积压决定是否转存
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100)); // 入队时唤醒
+                continue;
+            }
+            backlog.decrementAndGet();
+            long waited = System.nanoTime() - entry.enqueuedAt;
+            if (waited > maxWaitNanos) {
+                maxWaitNanos = waited;
+            }
+            try {
+                if (spilling) {
+                    spill.deliver(entry.message, entry.dedupId, entry.stamp);
+                    spilledCount.incrementAndGet();
+                } else {
+                    delivery.deliver(entry.message, entry.dedupId, entry.stamp);
+                    sentCount.incrementAndGet();
+                }
+            } catch (Exception e) {
+                droppedCount.incrementAndGet();
+                System.err.println("[发送通道] " + name + " 发送异常，丢弃: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 停止通道，发送完缓冲区中剩余的消息
+     * @return 通道线程是否已退出（未退出时线程可能仍在使用会话，调用方不能关闭会话）
+     */
+    public boolean close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    private static class Entry {
+        final String message;
+        final String dedupId;
+        final TraceContext.Stamp stamp;
+        final long enqueuedAt;
+
+        Entry(String message, String dedupId, TraceContext.Stamp stamp, long enqueuedAt) {
+            this.message = message;
+            this.dedupId = dedupId;
+            this.stamp = stamp;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
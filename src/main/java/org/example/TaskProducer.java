@@ -1,27 +1,180 @@
 package org.example;
 
 import javax.jms.JMSException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class TaskProducer implements TaskSink {
+    // 发件箱目录（每个队列一个子目录）
+    private static final String OUTBOX_DIR = System.getProperty("control.outboxDir", "outbox");
+    private static final long REPLAY_IDLE_INTERVAL = 100;   // 无积压时重放线程最长休眠（毫秒）
+    private static final long REPLAY_RETRY_INTERVAL = 1000; // Broker仍不可用时重试间隔（毫秒）
+    private static final int DEFAULT_LANE_CAPACITY = 1024;  // 默认发送通道容量
 
-public class TaskProducer {
     private final ActiveMQTaskQueue taskQueue;
+    private final String queueName;
+    private final OutboxJournal outbox;// Broker不可用时的本地发件箱（DROP_OLDEST 通道不使用，为null）
+    private final Thread replayer;// 发件箱重放线程（无发件箱时为null）
+    private final ActiveMQTaskQueue.Sender sender;// 发送通道线程独占的发送器
+    private final SendLane lane;// 发送通道
+    private volatile boolean running = true;
 
-    // 初始化时传入ActiveMQ连接信息
+    // 初始化时传入ActiveMQ连接信息（缓冲区满时转存发件箱）
     public TaskProducer(String brokerUrl, String queueName) throws JMSException {
+        this(brokerUrl, queueName, DEFAULT_LANE_CAPACITY, SendLane.OverflowPolicy.SPILL);
+    }
+
+    /**
+     * 每个队列独立的发送线程和会话（队列之间互不阻塞；JMS优先级只在同一队列内排序，因此不按队列设置优先级）
+     * @param brokerUrl ActiveMQ服务器地址
+     * @param queueName 队列名称
+     * @param capacity  发送通道缓冲区容量
+     * @param policy    缓冲区满时的处理策略（DROP_OLDEST 的刷新类消息过期即无用，不打开发件箱，发送失败直接丢弃）
+     */
+    public TaskProducer(String brokerUrl, String queueName, int capacity,
+                        SendLane.OverflowPolicy policy) throws JMSException {
         this.taskQueue = new ActiveMQTaskQueue(brokerUrl, queueName);
+        this.queueName = queueName;
+        if (policy == SendLane.OverflowPolicy.DROP_OLDEST) {
+            this.outbox = null;
+            this.replayer = null;
+        } else {
+            try {
+                this.outbox = new OutboxJournal(Paths.get(OUTBOX_DIR, queueName).toString());
+            } catch (IOException e) {
+                JMSException jmsException = new JMSException("无法打开发件箱: " + e.getMessage());
+                jmsException.setLinkedException(e);
+                throw jmsException;
+            }
+            this.replayer = new Thread(this::replayLoop, "outbox-replayer-" + queueName);
+            this.replayer.setDaemon(true);
+            this.replayer.start();
+        }
+        this.sender = taskQueue.createSender();
+        this.lane = new SendLane(queueName, capacity, policy, this::deliver, this::spill);
     }
 
     /**
-     * 发送任务到队列
+     * 发送任务到队列（只入发送通道，不等待Broker）
      * @param task 任务对象（需可序列化）
+     * @throws JMSException 序列化失败
      */
+    @Override
     public <T> void sendTask(T task) throws JMSException {
+        try {
+            // 在决策线程中分配去重ID并记录周期ID与发送时间（消费端据此还原各段耗时，与是否录制JFR无关）
+            lane.offer(taskQueue.serialize(task), ActiveMQTaskQueue.nextDedupId(), TraceContext.stamp());
+        } catch (IllegalStateException e) {
+            JMSException jmsException = new JMSException(e.getMessage());
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+    }
 
-            taskQueue.sendTask(task);
+    /**
+     * 在发送通道线程中实际发送
+     * Broker 不可用或发件箱仍有积压时写入本地发件箱，由后台线程按顺序重放，不丢消息；
+     * 发送失败但 Broker 实际已收到的消息，重放时带同一个去重ID，由消费者丢弃；
+     * 没有发件箱的通道发送失败时抛出异常，由发送通道计入丢弃数
+     */
+    private void deliver(String message, String dedupId, TraceContext.Stamp stamp) {
+        if (outbox == null) {
+            try {
+                sender.send(message, dedupId, stamp);
+                return;
+            } catch (JMSException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+        // 1. 没有积压时直接发送
+        if (outbox.isEmpty()) {
+            try {
+                sender.send(message, dedupId, stamp);
+                return;
+            } catch (JMSException e) {
+                System.err.println("[发件箱] " + queueName + " 发送失败，转存本地: " + e.getMessage());
+            }
+        }
+        // 2. 写入发件箱，保证与积压消息的先后顺序
+        spill(message, dedupId, stamp);
+    }
 
+    /**
+     * 写入发件箱并唤醒重放线程（发件箱保存消息体和去重ID，追踪信息不保存）
+     */
+    private void spill(String message, String dedupId, TraceContext.Stamp stamp) {
+        try {
+            outbox.append(dedupId, message);
+        } catch (IOException e) {
+            throw new IllegalStateException("写入发件箱失败: " + e.getMessage(), e);
+        }
+        LockSupport.unpark(replayer);
+    }
+
+    /** 发送通道（监控积压、丢弃、转存与等待时间） */
+    public SendLane getLane() {
+        return lane;
+    }
+
+    /**
+     * 启动Broker端队列深度与消费者数量监控
+     * @param interval 统计查询间隔（毫秒）
+     */
+    public BrokerQueueMonitor startMonitor(long interval) throws JMSException {
+        return taskQueue.startMonitor(interval);
+    }
+
+    /**
+     * 按顺序重放发件箱中的消息，发送成功后才移动游标
+     */
+    private void replayLoop() {
+        while (running) {
+            OutboxJournal.Record record;
+            try {
+                record = outbox.peek();
+            } catch (IOException e) {
+                System.err.println("[发件箱] " + queueName + " 读取失败: " + e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPLAY_RETRY_INTERVAL));
+                continue;
+            }
+            if (record == null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPLAY_IDLE_INTERVAL));
+                continue;
+            }
+            try {
+                taskQueue.sendJson(record.getMessage(), record.getDedupId());
+                outbox.commit(record);
+            } catch (JMSException e) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPLAY_RETRY_INTERVAL));
+            }
+        }
     }
 
-    // 关闭连接（可选）
+    // 关闭连接（可选），未重放的消息保留在发件箱中，下次启动继续发送
+    @Override
     public void close() throws JMSException {
+        // 先发完通道中的消息（失败的转存发件箱）；通道线程仍在发送时不关闭其会话
+        if (lane.close()) {
+            sender.close();
+        } else {
+            System.err.println("[发送通道] " + queueName + " 未在超时内发完，保留发送会话");
+        }
+        running = false;
+        if (outbox != null) {
+            LockSupport.unpark(replayer);
+            try {
+                replayer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                outbox.close();
+            } catch (IOException e) {
+                System.err.println("[发件箱] " + queueName + " 关闭失败: " + e.getMessage());
+            }
+        }
         taskQueue.close();
     }
-}
\ No newline at end of file
+}
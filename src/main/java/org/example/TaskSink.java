@@ -0,0 +1,18 @@
+package org.example;
+
+import javax.jms.JMSException;
+
+/**
+ * 任务发送目标（Control 的输出端）
+ * 生产环境为 TaskProducer（ActiveMQ 队列），回放时为内存替身
+ */
+public interface TaskSink {
+    /**
+     * 发送任务
+     * @param task 任务对象（需可序列化）
+     */
+    <T> void sendTask(T task) throws JMSException;
+
+    /** 关闭并释放资源 */
+    void close() throws JMSException;
+}
@@ -0,0 +1,124 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 检测周期使用的预编码键名与指令表
+ * 功能：状态键以字节数组常量保存，小车任务列表键和指令字符串按小车编号建表复用，
+ * 标志值直接与预编码字节比较、数值直接从字节解析，稳态下检测周期不再为键名、标志和数值分配新对象
+ */
+public final class TickKeys {
+    static final byte[] IS_CAR_OPEN = encode("IsCarOpen");
+    static final byte[] IS_NAVI_OPEN = encode("IsNaviOpen");
+    static final byte[] IS_VIEW_OPEN = encode("IsViewOpen");
+    static final byte[] IS_NAVI_FINISH = encode("IsNaviFinish");
+    static final byte[] MAP = encode("map");
+    private static final byte[] ONE = encode("1");
+    private static final byte[] ZERO = encode("0");
+
+    // 下标为小车编号，按需扩容（写时复制，消费线程可并发读取）
+    private static volatile byte[][] carTaskKeys = new byte[1][];
+    private static volatile String[] carCommands = new String[1];
+    private static volatile String[] naviCommands = new String[1];
+
+    private TickKeys() {
+    }
+
+    static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** 小车任务列表键 Car00iTaskList */
+    static byte[] carTaskKey(int carIndex) {
+        byte[][] keys = carTaskKeys;
+        if (carIndex >= keys.length) {
+            grow(carIndex);
+            keys = carTaskKeys;
+        }
+        return keys[carIndex];
+    }
+
+    /** 小车指令 "00i" */
+    static String carCommand(int carIndex) {
+        String[] commands = carCommands;
+        if (carIndex >= commands.length) {
+            grow(carIndex);
+            commands = carCommands;
+        }
+        return commands[carIndex];
+    }
+
+    /** 导航指令 "Car00i" */
+    static String naviCommand(int carIndex) {
+        String[] commands = naviCommands;
+        if (carIndex >= commands.length) {
+            grow(carIndex);
+            commands = naviCommands;
+        }
+        return commands[carIndex];
+    }
+
+    private static synchronized void grow(int carIndex) {
+        int size = carTaskKeys.length;
+        if (carIndex < size) {
+            return;
+        }
+        int newSize = Math.max(carIndex + 1, size * 2);
+        byte[][] keys = new byte[newSize][];
+        String[] cars = new String[newSize];
+        String[] navis = new String[newSize];
+        System.arraycopy(carTaskKeys, 0, keys, 0, size);
+        System.arraycopy(carCommands, 0, cars, 0, size);
+        System.arraycopy(naviCommands, 0, navis, 0, size);
+        for (int i = Math.max(1, size); i < newSize; i++) {
+            keys[i] = encode("Car00" + i + "TaskList");
+            cars[i] = "00" + i;
+            navis[i] = "Car00" + i;
+        }
+        // 先发布指令表，最后发布键表（读取方以键表长度判断是否需要扩容）
+        carCommands = cars;
+        naviCommands = navis;
+        carTaskKeys = keys;
+    }
+
+    /**
+     * 标志值解码："1"/"0" 返回字符串常量，不分配新对象
+     */
+    static String flag(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        if (Arrays.equals(value, ONE)) {
+            return "1";
+        }
+        if (Arrays.equals(value, ZERO)) {
+            return "0";
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 从字节直接解析整数（不创建中间字符串）
+     * @throws NumberFormatException 不是合法的十进制整数
+     */
+    static long parseLong(byte[] value) {
+        if (value.length == 0) {
+            throw new NumberFormatException("空值");
+        }
+        boolean negative = value[0] == '-';
+        int i = negative ? 1 : 0;
+        if (i == value.length) {
+            throw new NumberFormatException(new String(value, StandardCharsets.UTF_8));
+        }
+        long result = 0;
+        for (; i < value.length; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(new String(value, StandardCharsets.UTF_8));
+            }
+            result = Math.addExact(Math.multiplyExact(result, 10), digit);
+        }
+        return negative ? -result : result;
+    }
+}
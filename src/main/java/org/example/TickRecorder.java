@@ -0,0 +1,238 @@
+package org.example;
+
+import javax.jms.JMSException;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 检测周期录制器
+ * 功能：把每个周期的 Redis 输入（状态快照）和发往 UpdateCar/UpdateNavigate/UpdateView 的消息
+ * 写入紧凑的二进制轨迹文件，供 TickReplayer 离线回放
+ *
+ * 文件格式：[magic int][version int]，之后每个周期一条记录：
+ * [标记 byte][读取时间 long][降级 boolean][任务流模式 boolean][限流 byte][快照]
+ * [输出条数 int]{[队列 byte][消息 UTF]}[抑制条数 int]{[队列 byte][指令 UTF]}
+ * 快照中的导航目标写为 [条数 int（-1 表示未启用）]{[有值 boolean][目标 UTF]}
+ *
+ * 除 Redis 输入外，周期输出还取决于运行时状态：任务流模式下不派发小车指令，确认跟踪会抑制仍在等待确认的指令。
+ * 这些决定随周期一起录制，回放时原样施加，避免误报差异；
+ * 限流位（按队列编号）只用于报告——录制发生在限流之前，暂缓的指令仍记为本周期的输出
+ */
+public class TickRecorder implements AutoCloseable {
+    static final int MAGIC = 0x43545243;  // "CTRC"
+    static final int VERSION = 3;
+    static final byte TICK = 1;
+    // 队列编号
+    static final byte CAR = 0;
+    static final byte NAVI = 1;
+    static final byte DISPLAY = 2;
+
+    private final DataOutputStream out;
+    private final List<Output> outputs = new ArrayList<>();// 当前周期已发送的消息
+    private final List<Output> suppressed = new ArrayList<>();// 当前周期因等待确认而未发送的指令
+    private long tickCount;
+
+    /**
+     * @param file 轨迹文件路径
+     */
+    public TickRecorder(String file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        System.out.println("[录制] 检测周期轨迹写入: " + file);
+    }
+
+    /**
+     * 包装发送目标，检测线程在周期内发送的消息记入当前周期
+     * （确认重发、任务流消费、限流补发等其他线程的发送不属于任何周期，不记录，否则回放时会误判差异）
+     * @param queue 队列编号（CAR/NAVI/DISPLAY）
+     */
+    public TaskSink wrap(TaskSink delegate, byte queue) {
+        return new TaskSink() {
+            @Override
+            public <T> void sendTask(T task) throws JMSException {
+                if (TraceContext.currentTick() != 0) {
+                    onSend(queue, String.valueOf(task));
+                }
+                delegate.sendTask(task);
+            }
+
+            @Override
+            public void close() throws JMSException {
+                delegate.close();
+            }
+        };
+    }
+
+    private synchronized void onSend(byte queue, String message) {
+        outputs.add(new Output(queue, message));
+    }
+
+    /**
+     * 记录检测线程中因相同指令仍在等待确认而未发送的指令
+     * @param queue 队列编号（CAR/NAVI）
+     */
+    public synchronized void onSuppressed(byte queue, String command) {
+        if (TraceContext.currentTick() != 0) {
+            suppressed.add(new Output(queue, command));
+        }
+    }
+
+    /**
+     * 写入一个周期：输入快照、运行时决定与本周期发送的全部消息
+     * @param taskStream 是否为任务流模式（小车指令由消费线程派发）
+     * @param throttled  按队列编号的限流位
+     */
+    public synchronized void recordTick(ControlSnapshot state, boolean degraded, boolean taskStream, byte throttled) {
+        try {
+            out.writeByte(TICK);
+            out.writeLong(state.readAt);
+            out.writeBoolean(degraded);
+            out.writeBoolean(taskStream);
+            out.writeByte(throttled);
+            writeSnapshot(out, state);
+            writeOutputs(out, outputs);
+            writeOutputs(out, suppressed);
+            tickCount++;
+        } catch (IOException e) {
+            System.err.println("[录制] 写入失败: " + e.getMessage());
+        } finally {
+            outputs.clear();
+            suppressed.clear();
+        }
+    }
+
+    /**
+     * 丢弃当前周期已记录的发送（周期执行失败、未写入轨迹时调用，避免混入下一个周期）
+     */
+    public synchronized void discardTick() {
+        outputs.clear();
+        suppressed.clear();
+    }
+
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        System.out.println("[录制] 共录制 " + tickCount + " 个周期");
+    }
+
+    // ------------ 快照编解码 ------------
+
+    static void writeSnapshot(DataOutputStream out, ControlSnapshot state) throws IOException {
+        writeNullable(out, state.isCarOpen);
+        writeNullable(out, state.isNaviOpen);
+        writeNullable(out, state.isViewOpen);
+        writeNullable(out, state.isNaviFinish);
+        out.writeInt(state.carNumber);
+        out.writeLong(state.mapCells);
+        out.writeLong(state.mapLit);
+        // 任务列表是否非空按位打包
+        byte[] bits = new byte[(state.carHasTasks.length + 7) / 8];
+        for (int i = 0; i < state.carHasTasks.length; i++) {
+            if (state.carHasTasks[i]) {
+                bits[i >>> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        out.writeInt(state.carHasTasks.length);
+        out.write(bits);
+        out.writeInt(state.naviTargets == null ? -1 : state.naviTargets.length);
+        if (state.naviTargets != null) {
+            for (String target : state.naviTargets) {
+                writeNullable(out, target);
+            }
+        }
+    }
+
+    static ControlSnapshot readSnapshot(DataInputStream in, long readAt) throws IOException {
+        String isCarOpen = readNullable(in);
+        String isNaviOpen = readNullable(in);
+        String isViewOpen = readNullable(in);
+        String isNaviFinish = readNullable(in);
+        int carNumber = in.readInt();
+        long mapCells = in.readLong();
+        long mapLit = in.readLong();
+        boolean[] carHasTasks = new boolean[in.readInt()];
+        byte[] bits = new byte[(carHasTasks.length + 7) / 8];
+        in.readFully(bits);
+        for (int i = 0; i < carHasTasks.length; i++) {
+            carHasTasks[i] = (bits[i >>> 3] & (1 << (i & 7))) != 0;
+        }
+        int targetCount = in.readInt();
+        String[] naviTargets = targetCount < 0 ? null : new String[targetCount];
+        for (int i = 0; i < targetCount; i++) {
+            naviTargets[i] = readNullable(in);
+        }
+        return new ControlSnapshot(isCarOpen, isNaviOpen, isViewOpen, isNaviFinish,
+                carNumber, mapCells, mapLit, carHasTasks, naviTargets, readAt);
+    }
+
+    private static void writeOutputs(DataOutputStream out, List<Output> outputs) throws IOException {
+        out.writeInt(outputs.size());
+        for (Output output : outputs) {
+            out.writeByte(output.queue);
+            out.writeUTF(output.message);
+        }
+    }
+
+    static List<Output> readOutputs(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Output> outputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            outputs.add(new Output(in.readByte(), in.readUTF()));
+        }
+        return outputs;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 一条发送记录
+     */
+    static class Output {
+        final byte queue;
+        final String message;
+
+        Output(byte queue, String message) {
+            this.queue = queue;
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Output)) {
+                return false;
+            }
+            Output other = (Output) o;
+            return queue == other.queue && message.equals(other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return queue * 31 + message.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            String[] names = {"UpdateCar", "UpdateNavigate", "UpdateView"};
+            return names[queue] + ":" + message;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import javax.jms.JMSException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检测周期回放引擎
+ * 功能：读取 TickRecorder 录制的轨迹，把每个周期的输入快照送入 Control.processTick（使用内存替身代替
+ * Redis 和 ActiveMQ，按录制的任务流模式与确认抑制结果执行），统计吞吐量与延迟，并与录制时的输出逐条比对
+ * 周期内的逐条发送日志由 -Dcontrol.verbose 控制，默认关闭
+ *
+ * 用法：TickReplayer <轨迹文件> [--realtime]
+ */
+public class TickReplayer {
+    private static final int MAX_REPORTED_DIFFS = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: TickReplayer <轨迹文件> [--realtime]");
+            return;
+        }
+        boolean realtime = args.length > 1 && "--realtime".equals(args[1]);
+        replay(args[0], realtime);
+    }
+
+    /**
+     * 回放轨迹
+     * @param file     轨迹文件
+     * @param realtime true 按录制时的节奏回放，false 尽可能快
+     */
+    public static void replay(String file, boolean realtime) throws IOException, JMSException {
+        List<TickRecorder.Output> actual = new ArrayList<>();
+        Control control = new Control(capture(actual, TickRecorder.CAR),
+                capture(actual, TickRecorder.NAVI), capture(actual, TickRecorder.DISPLAY));
+
+        long[] latencies = new long[1024];
+        int ticks = 0;
+        int mismatches = 0;
+        long firstReadAt = -1;
+        long replayStart = System.nanoTime();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != TickRecorder.MAGIC || in.readInt() != TickRecorder.VERSION) {
+                throw new IOException("不是有效的检测周期轨迹文件: " + file);
+            }
+            while (true) {
+                byte tag;
+                try {
+                    tag = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (tag != TickRecorder.TICK) {
+                    throw new IOException("轨迹文件损坏，未知记录类型: " + tag);
+                }
+                long readAt = in.readLong();
+                boolean degraded = in.readBoolean();
+                boolean taskStream = in.readBoolean();
+                byte throttled = in.readByte();
+                ControlSnapshot state = TickRecorder.readSnapshot(in, readAt);
+                List<TickRecorder.Output> expected = TickRecorder.readOutputs(in);
+                List<TickRecorder.Output> suppressed = TickRecorder.readOutputs(in);
+
+                // 1. 按录制节奏等待
+                if (firstReadAt < 0) {
+                    firstReadAt = readAt;
+                }
+                if (realtime) {
+                    long due = replayStart + TimeUnit.MILLISECONDS.toNanos(readAt - firstReadAt);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+
+                // 2. 按录制时的运行时决定执行一个周期并计时
+                actual.clear();
+                control.replayContext(taskStream, suppressed);
+                long start = System.nanoTime();
+                control.processTick(state, degraded);
+                long latency = System.nanoTime() - start;
+                if (ticks == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, ticks * 2);
+                }
+                latencies[ticks] = latency;
+
+                // 3. 与录制输出比对
+                if (!expected.equals(actual)) {
+                    mismatches++;
+                    if (mismatches <= MAX_REPORTED_DIFFS) {
+                        System.out.println("[回放] 第 " + ticks + " 个周期输出不一致: 录制 " + expected + "，回放 " + actual
+                                + (throttled != 0 ? "（录制时限流中）" : ""));
+                    }
+                }
+                ticks++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // 4. 汇总报告
+        long elapsed = System.nanoTime() - replayStart;
+        Arrays.sort(latencies, 0, ticks);
+        System.out.println("\n回放结果:");
+        System.out.println("周期数: " + ticks + "，输出不一致: " + mismatches);
+        System.out.printf("总耗时: %.2f 毫秒，吞吐量: %.0f 周期/秒%n",
+                elapsed / 1e6, ticks / (elapsed / 1e9));
+        if (ticks > 0) {
+            System.out.printf("周期延迟: p50 %.1f 微秒，p99 %.1f 微秒，最大 %.1f 微秒%n",
+                    latencies[ticks / 2] / 1e3, latencies[(int) (ticks * 0.99)] / 1e3, latencies[ticks - 1] / 1e3);
+        }
+    }
+
+    /**
+     * 内存替身：记录发送的消息
+     */
+    private static TaskSink capture(List<TickRecorder.Output> outputs, byte queue) {
+        return new TaskSink() {
+            @Override
+            public <T> void sendTask(T task) {
+                outputs.add(new TickRecorder.Output(queue, String.valueOf(task)));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package org.example;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 指令追踪上下文
+ * 功能：为每个检测周期分配周期ID（保存在检测线程的ThreadLocal中），
+ * 发送时为每条指令生成关联ID和发送时间戳，写入JMS消息属性，消费端据此还原从决策到处理的各段耗时
+ */
+public final class TraceContext {
+    public static final String TICK_ID_PROPERTY = "tickId";// 周期ID消息属性名（0表示不是在检测周期中发出）
+    public static final String SEND_TIMESTAMP_PROPERTY = "sendTimestamp";// 决策发送时间（毫秒）消息属性名
+
+    private static final AtomicLong tickIds = new AtomicLong();
+    private static final AtomicLong correlationIds = new AtomicLong();
+    private static final String NODE_PREFIX = ProcessHandle.current().pid() + "-";
+    private static final ThreadLocal<long[]> currentTick = ThreadLocal.withInitial(() -> new long[1]);// 复用数组，避免每周期装箱
+
+    private TraceContext() {
+    }
+
+    /**
+     * 开始新的检测周期
+     * @return 周期ID
+     */
+    public static long beginTick() {
+        long tickId = tickIds.incrementAndGet();
+        currentTick.get()[0] = tickId;
+        return tickId;
+    }
+
+    /** 结束当前检测周期 */
+    public static void endTick() {
+        currentTick.get()[0] = 0;
+    }
+
+    /** 当前线程所在的周期ID（不在检测周期中时为0） */
+    public static long currentTick() {
+        return currentTick.get()[0];
+    }
+
+    /**
+     * 为一条指令生成追踪信息（在决策线程中调用）
+     */
+    public static Stamp stamp() {
+        return new Stamp(currentTick(), NODE_PREFIX + correlationIds.incrementAndGet(), System.currentTimeMillis());
+    }
+
+    /**
+     * 一条指令的追踪信息
+     */
+    public static final class Stamp {
+        final long tickId;// 周期ID
+        final String correlationId;// 关联ID
+        final long sendTimestamp;// 决策发送时间（毫秒）
+
+        Stamp(long tickId, String correlationId, long sendTimestamp) {
+            this.tickId = tickId;
+            this.correlationId = correlationId;
+            this.sendTimestamp = sendTimestamp;
+        }
+
+        /** 写入消息属性 */
+        void apply(Message message) throws JMSException {
+            message.setLongProperty(TICK_ID_PROPERTY, tickId);
+            message.setJMSCorrelationID(correlationId);
+            message.setLongProperty(SEND_TIMESTAMP_PROPERTY, sendTimestamp);
+        }
+
+        public long getTickId() {
+            return tickId;
+        }
+
+        public String getCorrelationId() {
+            return correlationId;
+        }
+
+        public long getSendTimestamp() {
+            return sendTimestamp;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * 自定义 Java Flight Recorder 事件
+ * 用法：启动时加 -XX:StartFlightRecording=filename=control.jfr，
+ * 按 tickId / correlationId 关联各事件即可还原每条指令的耗时分解；未开启录制时几乎无开销
+ */
+public final class TraceEvents {
+    private static final EventType TICK_TYPE = EventType.getEventType(TickEvent.class);
+    private static final EventType PHASE_TYPE = EventType.getEventType(RedisPhaseEvent.class);
+    private static final EventType JMS_SEND_TYPE = EventType.getEventType(JmsSendEvent.class);
+
+    private TraceEvents() {
+    }
+
+    /** 检测周期事件是否在录制（未录制时不创建事件对象） */
+    static boolean tickEnabled() {
+        return TICK_TYPE.isEnabled();
+    }
+
+    /** Redis 阶段事件是否在录制 */
+    static boolean phaseEnabled() {
+        return PHASE_TYPE.isEnabled();
+    }
+
+    /** JMS 发送事件是否在录制（未录制时不创建事件对象，追踪信息照常写入消息） */
+    static boolean jmsSendEnabled() {
+        return JMS_SEND_TYPE.isEnabled();
+    }
+
+    @Name("org.example.Tick")
+    @Label("Control Tick")
+    @Category({"Control", "Tick"})
+    @Description("一次检测周期（读取状态 + 派发）")
+    static class TickEvent extends Event {
+        @Label("Tick ID")
+        long tickId;
+        @Label("Degraded")
+        boolean degraded;
+        @Label("Car Number")
+        int carNumber;
+    }
+
+    @Name("org.example.RedisPhase")
+    @Label("Redis Phase")
+    @Category({"Control", "Redis"})
+    @Description("检测周期中的一个 Redis 读取阶段")
+    static class RedisPhaseEvent extends Event {
+        @Label("Tick ID")
+        long tickId;
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("org.example.JmsSend")
+    @Label("JMS Send")
+    @Category({"Control", "JMS"})
+    @Description("向 Broker 发送一条消息")
+    static class JmsSendEvent extends Event {
+        @Label("Queue")
+        String queue;
+        @Label("Tick ID")
+        long tickId;
+        @Label("Correlation ID")
+        String correlationId;
+        @Label("Lane Wait")
+        @Timespan(Timespan.MILLISECONDS)
+        long laneWait;// 从决策到实际发送的等待时间
+    }
+
+    @Name("org.example.ConsumerReceive")
+    @Label("Consumer Receive")
+    @Category({"Control", "JMS"})
+    @Description("消费端收到一条消息")
+    static class ConsumerReceiveEvent extends Event {
+        @Label("Queue")
+        String queue;
+        @Label("Tick ID")
+        long tickId;
+        @Label("Correlation ID")
+        String correlationId;
+        @Label("End To End Latency")
+        @Timespan(Timespan.MILLISECONDS)
+        long latency;// 从决策到收到的时间（跨主机时受时钟偏差影响）
+    }
+
+    @Name("org.example.TaskHandle")
+    @Label("Task Handle")
+    @Category({"Control", "JMS"})
+    @Description("消费端 TaskHandler 处理一条消息")
+    static class TaskHandleEvent extends Event {
+        @Label("Queue")
+        String queue;
+        @Label("Tick ID")
+        long tickId;
+        @Label("Correlation ID")
+        String correlationId;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+}
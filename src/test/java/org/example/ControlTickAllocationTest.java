@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 检测周期内存分配测试
+ * 用内存替身代替 ActiveMQ、用固定快照代替 Redis，直接调用 Control.processTick，
+ * 按线程统计稳态下每个周期的平均分配字节数（不需要 Redis 和 Broker）
+ */
+public class ControlTickAllocationTest {
+    private static final int CARS = 16;
+    private static final int WARMUP_TICKS = 20_000;  // 预热，使派发路径完成 JIT 编译
+    private static final int MEASURED_TICKS = 20_000;
+    private static final long TICK_ALLOC_BUDGET = 64; // 每周期平均分配上限（字节），稳态下应为0
+
+    @Test
+    public void steadyStateTickDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        Control control = new Control(discard(), discard(), discard());
+        // 导航状态值在两个快照间交替，每个周期都派发导航指令（带前沿目标）
+        ControlSnapshot[] states = {snapshot("0"), snapshot("1")};
+
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            control.processTick(states[i & 1], false);
+        }
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_TICKS; i++) {
+            control.processTick(states[i & 1], false);
+        }
+        long perTick = (threadBean.getCurrentThreadAllocatedBytes() - before) / MEASURED_TICKS;
+
+        assertTrue(perTick <= TICK_ALLOC_BUDGET,
+                "每周期平均分配 " + perTick + " 字节，超出预算 " + TICK_ALLOC_BUDGET + " 字节");
+    }
+
+    /**
+     * 小车、导航、显示器全部开启；奇数号小车有任务，偶数号空闲并带导航目标；地图未全亮
+     */
+    private static ControlSnapshot snapshot(String naviFinish) {
+        boolean[] carHasTasks = new boolean[CARS + 1];
+        String[] naviTargets = new String[CARS + 1];
+        for (int i = 1; i <= CARS; i++) {
+            carHasTasks[i] = i % 2 == 1;
+            naviTargets[i] = carHasTasks[i] ? null : i + ",0";
+        }
+        return new ControlSnapshot("1", "1", "1", naviFinish, CARS, 100 * 100, 10,
+                carHasTasks, naviTargets, System.currentTimeMillis());
+    }
+
+    private static TaskSink discard() {
+        return new TaskSink() {
+            @Override
+            public <T> void sendTask(T task) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}